@@ -1,43 +1,264 @@
 package dk.sublife.docker.integration.example.mysql;
 
 import com.spotify.docker.client.messages.ContainerConfig;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import dk.sublife.docker.integration.Container;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
-import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
 
 public class MySQLContainer extends Container {
 
 	@Value("${docker.images.mysql:mysql:5.7}")
 	private String image;
 
+	/**
+	 * Fixtures loaded on first startup, if any.
+	 */
+	@Autowired(required = false)
+	private MySQLFixtures fixtures;
+
+	@Value("${docker.mysql.datasource.maximumPoolSize:5}")
+	private Integer maximumPoolSize;
+
+	/**
+	 * Connections opened during postStartup and kept idle in the pool.
+	 */
+	@Value("${docker.mysql.datasource.warmup:2}")
+	private Integer warmup;
+
+	/**
+	 * Query used to validate connections, JDBC4 isValid is used when empty.
+	 */
+	@Value("${docker.mysql.datasource.validationQuery:}")
+	private String validationQuery;
+
+	@Value("${docker.mysql.datasource.connectionTimeout:5000}")
+	private Long connectionTimeout;
+
+	private volatile HikariDataSource dataSource;
+
 	/**
 	 * slf4j logger instance.
 	 */
 	private static final Logger LOGGER = LoggerFactory.getLogger(MySQLContainer.class);
 
 	@Override
-	protected ContainerConfig createContainer() throws Exception {
-		return image(image)
-				.env("MYSQL_ALLOW_EMPTY_PASSWORD=yes")
-				.build();
+	protected ContainerConfig createContainerConfig() throws Exception {
+		final ContainerConfig.Builder builder = image(image)
+				.env("MYSQL_ALLOW_EMPTY_PASSWORD=yes");
+		if (hasFixtures()) {
+			builder.cmd(fixtures.serverOptions());
+		}
+		return builder.build();
 	}
 
 	@Override
-	public boolean isUp() {
+	protected boolean postCreateContainer() {
+		if (!hasFixtures()) {
+			return true;
+		}
+		try {
+			final Path staging = Files.createTempDirectory("mysql-fixtures");
+			try {
+				fixtures.stage(staging);
+				copyToContainer(staging, Paths.get(MySQLFixtures.INIT_DIRECTORY));
+			} finally {
+				try (final Stream<Path> files = Files.walk(staging)) {
+					files.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+				}
+			}
+			return true;
+		} catch (Exception e) {
+			LOGGER.error("Unable to copy fixtures to container", e);
+			return false;
+		}
+	}
+
+	@Override
+	protected boolean postStartContainer() {
+		try {
+			dataSource = createDataSource();
+			return true;
+		} catch (Exception e) {
+			LOGGER.error("Unable to create data source", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Create the connection pool. The pool does not connect until it is used,
+	 * so it can be created as soon as the container address is known.
+	 *
+	 * @return connection pool
+	 * @throws Exception
+	 */
+	protected HikariDataSource createDataSource() throws Exception {
+		final HikariConfig config = new HikariConfig();
+		config.setPoolName("mysql-" + name().replace("/", ""));
+		config.setJdbcUrl("jdbc:mysql://" + address() + "/mysql");
+		config.setUsername("root");
+		config.setMaximumPoolSize(maximumPoolSize);
+		config.setMinimumIdle(Math.min(warmup, maximumPoolSize));
+		config.setConnectionTimeout(connectionTimeout);
+		config.setInitializationFailFast(false);
+		if (!validationQuery.isEmpty()) {
+			config.setConnectionTestQuery(validationQuery);
+		}
+		return new HikariDataSource(config);
+	}
+
+	/**
+	 * Pooled data source connected to the container.
+	 * <p/>
+	 * The pool is wrapped, as HikariDataSource is an MXBean which Spring Boot
+	 * exports to JMX under its bean name, so a second context publishing it
+	 * would fail to start.
+	 *
+	 * @return data source
+	 */
+	public DataSource dataSource() {
+		return new PooledDataSource(dataSource);
+	}
+
+	@Override
+	protected boolean postStartup() {
+		if (!warmUp()) {
+			return false;
+		}
+		if (!hasFixtures()) {
+			return true;
+		}
+		try (final Connection connection = dataSource.getConnection()) {
+			LOGGER.info("Loaded fixtures: {}", fixtures.statistics(connection));
+			return true;
+		} catch (Exception e) {
+			LOGGER.error("Unable to verify fixtures", e);
+			return false;
+		}
+	}
+
+	/**
+	 * Open the warm-up connections at once and return them to the pool, so
+	 * tests do not pay for the MySQL handshake.
+	 */
+	private boolean warmUp() {
+		final List<Connection> connections = new ArrayList<>();
 		try {
-			final Connection connection = DriverManager.getConnection("jdbc:mysql://" + address() + "/mysql?user=root");
+			for (int i = 0; i < Math.min(warmup, maximumPoolSize); i++) {
+				connections.add(dataSource.getConnection());
+			}
+			return true;
+		} catch (Exception e) {
+			LOGGER.error("Unable to warm up data source", e);
+			return false;
+		} finally {
+			for (final Connection connection : connections) {
+				try {
+					connection.close();
+				} catch (Exception e) {
+					LOGGER.warn(e.getMessage());
+				}
+			}
+		}
+	}
+
+	@Override
+	public boolean isUp() {
+		try (final Connection connection = dataSource.getConnection()) {
 			final DatabaseMetaData metaData = connection.getMetaData();
 			assert metaData.getDatabaseProductName().equals("MySQL");
 			LOGGER.info("Connected to {} v{}", metaData.getDatabaseProductName(), metaData.getDatabaseProductVersion());
-			connection.close();
 			return true;
 		} catch (Exception e) {
 			return false;
 		}
 	}
+
+	@Override
+	public void destroy() throws Exception {
+		try {
+			if (dataSource != null) {
+				dataSource.close();
+			}
+		} finally {
+			super.destroy();
+		}
+	}
+
+	private boolean hasFixtures() {
+		return fixtures != null && !fixtures.isEmpty();
+	}
+
+	/**
+	 * Data source delegating to the connection pool, without exposing its MXBean.
+	 */
+	private static class PooledDataSource implements DataSource {
+		private final HikariDataSource pool;
+
+		PooledDataSource(final HikariDataSource pool) {
+			this.pool = pool;
+		}
+
+		@Override
+		public Connection getConnection() throws SQLException {
+			return pool.getConnection();
+		}
+
+		@Override
+		public Connection getConnection(final String username, final String password) throws SQLException {
+			return pool.getConnection(username, password);
+		}
+
+		@Override
+		public PrintWriter getLogWriter() throws SQLException {
+			return pool.getLogWriter();
+		}
+
+		@Override
+		public void setLogWriter(final PrintWriter out) throws SQLException {
+			pool.setLogWriter(out);
+		}
+
+		@Override
+		public void setLoginTimeout(final int seconds) throws SQLException {
+			pool.setLoginTimeout(seconds);
+		}
+
+		@Override
+		public int getLoginTimeout() throws SQLException {
+			return pool.getLoginTimeout();
+		}
+
+		@Override
+		public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			return pool.getParentLogger();
+		}
+
+		@Override
+		public <T> T unwrap(final Class<T> iface) throws SQLException {
+			return iface.isInstance(pool) ? iface.cast(pool) : pool.unwrap(iface);
+		}
+
+		@Override
+		public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+			return iface.isInstance(pool) || pool.isWrapperFor(iface);
+		}
+	}
 }
@@ -0,0 +1,251 @@
+package dk.sublife.docker.integration.example.mysql;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Fixtures loaded into a {@link MySQLContainer} by the server itself.
+ * <p/>
+ * SQL dumps and CSV datasets are copied into the docker-entrypoint-initdb.d
+ * directory before the container is started. The MySQL entrypoint executes
+ * the dumps while initializing the database, and CSV datasets are loaded with
+ * LOAD DATA INFILE, all with foreign key and unique checks disabled. The init
+ * scripts record when the load begins and ends and how many rows each CSV
+ * dataset loaded, see {@link #statistics(Connection)}.
+ * <p/>
+ * Expose an instance as a bean to have it picked up by the container.
+ */
+public class MySQLFixtures {
+
+	/**
+	 * Directory in the container executed by the MySQL entrypoint on first startup.
+	 */
+	static final String INIT_DIRECTORY = "/docker-entrypoint-initdb.d";
+
+	/**
+	 * Table written by the init scripts while loading, dropped when read.
+	 */
+	private static final String LOAD_LOG = "docker_integration_fixtures.load_log";
+
+	private final List<Path> dumps = new ArrayList<>();
+	private final List<Dataset> datasets = new ArrayList<>();
+
+	/**
+	 * Add a SQL dump (.sql or .sql.gz) executed in the order added.
+	 *
+	 * @param dump SQL dump
+	 * @return this
+	 */
+	public MySQLFixtures sql(final Path dump) {
+		dumps.add(dump);
+		return this;
+	}
+
+	/**
+	 * Add a comma separated CSV dataset with a header line.
+	 *
+	 * @param table schema qualified table name, e.g. shop.orders
+	 * @param csv CSV file
+	 * @return this
+	 */
+	public MySQLFixtures csv(final String table, final Path csv) {
+		return csv(table, csv, true);
+	}
+
+	/**
+	 * Add a comma separated CSV dataset.
+	 *
+	 * @param table schema qualified table name, e.g. shop.orders
+	 * @param csv CSV file
+	 * @param header true if the first line contains column names
+	 * @return this
+	 */
+	public MySQLFixtures csv(final String table, final Path csv, final boolean header) {
+		datasets.add(new Dataset(table, csv, header));
+		return this;
+	}
+
+	public boolean isEmpty() {
+		return dumps.isEmpty() && datasets.isEmpty();
+	}
+
+	/**
+	 * Server options required to load the fixtures.
+	 *
+	 * @return mysqld command line options
+	 */
+	public List<String> serverOptions() {
+		if (datasets.isEmpty()) {
+			return Collections.emptyList();
+		}
+		return Collections.singletonList("--secure-file-priv=" + INIT_DIRECTORY);
+	}
+
+	/**
+	 * Stage the fixtures in a local directory, ready to be copied into the
+	 * init directory of the container.
+	 *
+	 * @param directory empty staging directory
+	 * @throws IOException if the fixtures could not be staged
+	 */
+	public void stage(final Path directory) throws IOException {
+		write(directory.resolve("000-fixtures-begin.sql"),
+				"SET GLOBAL foreign_key_checks = 0;\nSET GLOBAL unique_checks = 0;\n"
+						+ "CREATE DATABASE docker_integration_fixtures;\n"
+						+ "CREATE TABLE " + LOAD_LOG + " (phase VARCHAR(255) NOT NULL, loaded_rows BIGINT NOT NULL, at TIMESTAMP(6) NOT NULL);\n"
+						+ log("'begin'", "0"));
+
+		for (int i = 0; i < dumps.size(); i++) {
+			final Path dump = dumps.get(i);
+			link(dump, directory.resolve(String.format("%03d-%s", i + 1, dump.getFileName())));
+		}
+
+		final StringBuilder load = new StringBuilder();
+		for (int i = 0; i < datasets.size(); i++) {
+			final Dataset dataset = datasets.get(i);
+			final String file = String.format("data-%03d-%s", i + 1, dataset.csv.getFileName());
+			link(dataset.csv, directory.resolve(file));
+			load.append(String.format(
+					"LOAD DATA INFILE '%s/%s' INTO TABLE %s FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' LINES TERMINATED BY '\\n'%s;\n",
+					INIT_DIRECTORY, file, dataset.table, dataset.header ? " IGNORE 1 LINES" : ""));
+			load.append("SET @loaded_rows = ROW_COUNT();\n");
+			load.append(log("'csv'", "@loaded_rows"));
+		}
+		write(directory.resolve("900-fixtures-load.sql"), load.toString());
+
+		write(directory.resolve("999-fixtures-end.sql"),
+				log("'end'", "0") + "SET GLOBAL foreign_key_checks = 1;\nSET GLOBAL unique_checks = 1;\n");
+	}
+
+	private static String log(final String phase, final String rows) {
+		return String.format("INSERT INTO %s VALUES (%s, %s, NOW(6));\n", LOAD_LOG, phase, rows);
+	}
+
+	/**
+	 * Read the statistics recorded by the init scripts and drop the load log,
+	 * so it is not visible to the tests.
+	 *
+	 * @param connection connection to the container
+	 * @return load statistics
+	 * @throws SQLException if the load log is missing
+	 */
+	public Statistics statistics(final Connection connection) throws SQLException {
+		try (final Statement statement = connection.createStatement()) {
+			final Statistics statistics;
+			try (final ResultSet resultSet = statement.executeQuery(String.format(
+					"SELECT TIMESTAMPDIFF(MICROSECOND, MIN(at), MAX(at)), SUM(CASE phase WHEN 'csv' THEN loaded_rows ELSE 0 END) FROM %s",
+					LOAD_LOG))) {
+				resultSet.next();
+				statistics = new Statistics(resultSet.getLong(1) / 1000, resultSet.getLong(2), bytes());
+			}
+			statement.execute("DROP DATABASE docker_integration_fixtures");
+			return statistics;
+		}
+	}
+
+	/**
+	 * Total size of the staged SQL dumps and CSV datasets.
+	 *
+	 * @return size in bytes
+	 */
+	public long bytes() {
+		long bytes = 0;
+		for (final Path dump : dumps) {
+			bytes += size(dump);
+		}
+		for (final Dataset dataset : datasets) {
+			bytes += size(dataset.csv);
+		}
+		return bytes;
+	}
+
+	private static long size(final Path file) {
+		try {
+			return Files.size(file);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private static void write(final Path file, final String content) throws IOException {
+		Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Hard link large files into the staging directory, falling back to a copy
+	 * when the staging directory is on another file system.
+	 */
+	private static void link(final Path source, final Path target) throws IOException {
+		try {
+			Files.createLink(target, source.toAbsolutePath());
+		} catch (final IOException | UnsupportedOperationException e) {
+			Files.copy(source, target);
+		}
+	}
+
+	/**
+	 * Statistics of a fixture load, measured by the MySQL server from the
+	 * first to the last init script.
+	 */
+	public static class Statistics {
+		private final long millis;
+		private final long csvRows;
+		private final long bytes;
+
+		Statistics(final long millis, final long csvRows, final long bytes) {
+			this.millis = millis;
+			this.csvRows = csvRows;
+			this.bytes = bytes;
+		}
+
+		/**
+		 * @return load time in milliseconds
+		 */
+		public long millis() {
+			return millis;
+		}
+
+		/**
+		 * @return rows inserted by LOAD DATA INFILE, excluding rows from SQL dumps
+		 */
+		public long csvRows() {
+			return csvRows;
+		}
+
+		/**
+		 * @return size of the SQL dumps and CSV datasets
+		 */
+		public long bytes() {
+			return bytes;
+		}
+
+		@Override
+		public String toString() {
+			final long millis = Math.max(1, this.millis);
+			return String.format("%d bytes in %dms (%d KB/s), %d rows from CSV (%d rows/s)",
+					bytes, this.millis, bytes * 1000 / 1024 / millis, csvRows, csvRows * 1000 / millis);
+		}
+	}
+
+	private static class Dataset {
+		private final String table;
+		private final Path csv;
+		private final boolean header;
+
+		Dataset(final String table, final Path csv, final boolean header) {
+			this.table = table;
+			this.csv = csv;
+			this.header = header;
+		}
+	}
+}
@@ -4,6 +4,8 @@ import dk.sublife.docker.integration.example.mysql.MySQLContainer;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import javax.sql.DataSource;
+
 @Configuration
 public class MySQLStarter {
 
@@ -12,5 +14,13 @@ public class MySQLStarter {
 		return new MySQLContainer();
 	}
 
+	/**
+	 * Pooled data source owned and closed by the container.
+	 */
+	@Bean(destroyMethod = "")
+	DataSource mySQLDataSource(final MySQLContainer mySQLContainer){
+		return mySQLContainer.dataSource();
+	}
+
 
 }
@@ -17,6 +17,7 @@ package dk.sublife.docker.integration.example;
 
 import dk.sublife.docker.integration.example.mysql.MySQLContainer;
 import dk.sublife.docker.integration.example.mysql.MySQLContainerApplication;
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -26,8 +27,8 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
 
 import static org.junit.Assert.assertTrue;
@@ -44,12 +45,20 @@ abstract public class ITMySQLContainer {
 	@Autowired
 	protected MySQLContainer container;
 
+	@Autowired
+	protected DataSource dataSource;
+
 	protected Connection connection;
 
 	@Before
 	public void setUp() throws Exception {
 		container.waitFor();
-		connection = DriverManager.getConnection("jdbc:mysql://" + container.address() + "/mysql?user=root");
+		connection = dataSource.getConnection();
+	}
+
+	@After
+	public void tearDown() throws Exception {
+		connection.close();
 	}
 
 	protected String version() throws SQLException {
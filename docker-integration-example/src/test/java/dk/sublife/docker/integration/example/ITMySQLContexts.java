@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.example;
+
+import dk.sublife.docker.integration.example.mysql.MySQLContainer;
+import dk.sublife.docker.integration.example.mysql.MySQLContainerApplication;
+import org.junit.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Cached test contexts keep their containers alive side by side, so two
+ * MySQL contexts must be able to run at the same time in one JVM.
+ */
+public class ITMySQLContexts {
+
+	@Test
+	public void testThatTwoMySQLContextsCanBeAliveAtTheSameTime() throws Exception {
+		try (final ConfigurableApplicationContext mysql56 = context("mysql:5.6");
+			 final ConfigurableApplicationContext mysql57 = context("mysql:5.7")) {
+			assertConnected(mysql56);
+			assertConnected(mysql57);
+		}
+	}
+
+	private static ConfigurableApplicationContext context(final String image) {
+		return new SpringApplicationBuilder(MySQLContainerApplication.class)
+				.web(false)
+				.run("--docker.images.mysql=" + image);
+	}
+
+	private static void assertConnected(final ConfigurableApplicationContext context) throws Exception {
+		assertTrue(context.getBean(MySQLContainer.class).waitFor());
+		try (final Connection connection = context.getBean(DataSource.class).getConnection()) {
+			assertTrue(connection.isValid(5));
+		}
+	}
+}
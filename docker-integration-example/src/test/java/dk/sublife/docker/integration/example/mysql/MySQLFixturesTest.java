@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.example.mysql;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MySQLFixturesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testThatFixturesAreStagedInExecutionOrder() throws Exception {
+		final Path source = folder.newFolder("source").toPath();
+		final Path schema = write(source.resolve("schema.sql"), "CREATE DATABASE shop;");
+		final Path data = write(source.resolve("data.sql"), "INSERT INTO shop.customers VALUES (1);");
+		final Path orders = write(source.resolve("orders.csv"), "id,customer\n1,1\n");
+		final Path lines = write(source.resolve("lines.csv"), "1,1,2\n");
+		final Path staging = folder.newFolder("staging").toPath();
+
+		new MySQLFixtures()
+				.sql(schema)
+				.sql(data)
+				.csv("shop.orders", orders)
+				.csv("shop.order_lines", lines, false)
+				.stage(staging);
+
+		// the MySQL entrypoint executes the init directory in alphabetical order
+		assertEquals(Arrays.asList("000-fixtures-begin.sql", "001-schema.sql", "002-data.sql", "900-fixtures-load.sql",
+				"999-fixtures-end.sql", "data-001-orders.csv", "data-002-lines.csv"), files(staging));
+		assertArrayEquals(Files.readAllBytes(schema), Files.readAllBytes(staging.resolve("001-schema.sql")));
+		assertArrayEquals(Files.readAllBytes(orders), Files.readAllBytes(staging.resolve("data-001-orders.csv")));
+
+		assertEquals(Arrays.asList(
+				"SET GLOBAL foreign_key_checks = 0;",
+				"SET GLOBAL unique_checks = 0;",
+				"CREATE DATABASE docker_integration_fixtures;",
+				"CREATE TABLE docker_integration_fixtures.load_log (phase VARCHAR(255) NOT NULL, loaded_rows BIGINT NOT NULL, at TIMESTAMP(6) NOT NULL);",
+				"INSERT INTO docker_integration_fixtures.load_log VALUES ('begin', 0, NOW(6));"),
+				read(staging.resolve("000-fixtures-begin.sql")));
+		assertEquals(Arrays.asList(
+				"LOAD DATA INFILE '/docker-entrypoint-initdb.d/data-001-orders.csv' INTO TABLE shop.orders FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' LINES TERMINATED BY '\\n' IGNORE 1 LINES;",
+				"SET @loaded_rows = ROW_COUNT();",
+				"INSERT INTO docker_integration_fixtures.load_log VALUES ('csv', @loaded_rows, NOW(6));",
+				"LOAD DATA INFILE '/docker-entrypoint-initdb.d/data-002-lines.csv' INTO TABLE shop.order_lines FIELDS TERMINATED BY ',' OPTIONALLY ENCLOSED BY '\"' LINES TERMINATED BY '\\n';",
+				"SET @loaded_rows = ROW_COUNT();",
+				"INSERT INTO docker_integration_fixtures.load_log VALUES ('csv', @loaded_rows, NOW(6));"),
+				read(staging.resolve("900-fixtures-load.sql")));
+		assertEquals(Arrays.asList(
+				"INSERT INTO docker_integration_fixtures.load_log VALUES ('end', 0, NOW(6));",
+				"SET GLOBAL foreign_key_checks = 1;",
+				"SET GLOBAL unique_checks = 1;"),
+				read(staging.resolve("999-fixtures-end.sql")));
+	}
+
+	@Test
+	public void testThatCsvFixturesEnableLoadingFromTheInitDirectory() throws Exception {
+		final Path csv = write(folder.getRoot().toPath().resolve("orders.csv"), "1,1\n");
+
+		assertEquals(Collections.emptyList(), new MySQLFixtures().sql(csv).serverOptions());
+		assertEquals(Collections.singletonList("--secure-file-priv=/docker-entrypoint-initdb.d"),
+				new MySQLFixtures().csv("shop.orders", csv).serverOptions());
+		assertTrue(new MySQLFixtures().isEmpty());
+	}
+
+	private static Path write(final Path file, final String content) throws Exception {
+		return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static List<String> read(final Path file) throws Exception {
+		return Files.readAllLines(file, StandardCharsets.UTF_8);
+	}
+
+	private static List<String> files(final Path directory) throws Exception {
+		try (final Stream<Path> files = Files.list(directory)) {
+			return files.map(file -> file.getFileName().toString()).sorted().collect(Collectors.toList());
+		}
+	}
+}
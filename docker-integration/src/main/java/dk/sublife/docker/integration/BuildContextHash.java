@@ -0,0 +1,171 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Content hash of a docker build context.
+ * <p/>
+ * The hash covers the relative path and content of every file in the build
+ * context, including the Dockerfile, so an unchanged context always yields
+ * the same hash. Files excluded by the .dockerignore file of the context are
+ * not sent to the docker daemon and are therefore neither read nor hashed.
+ */
+public final class BuildContextHash {
+
+	private static final String DOCKERIGNORE = ".dockerignore";
+
+	private BuildContextHash() {
+	}
+
+	/**
+	 * Hash a build context.
+	 *
+	 * @param dockerfile Dockerfile, must be located inside the context
+	 * @param context build context directory
+	 * @return hex encoded sha-256 hash
+	 * @throws IOException if the context could not be read
+	 */
+	public static String hash(final Path dockerfile, final Path context) throws IOException {
+		final MessageDigest digest = sha256();
+		digest.update(context.relativize(dockerfile).toString().getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+
+		final List<Pattern> ignore = dockerignore(context);
+		// ignored directories can only be skipped when no exception could re-include files below them
+		final boolean skipDirectories = ignore.stream().noneMatch(pattern -> pattern.exception);
+		final List<Path> files = new ArrayList<>();
+		Files.walkFileTree(context, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(final Path dir, final BasicFileAttributes attrs) {
+				return skipDirectories && !dir.equals(context) && ignored(ignore, context.relativize(dir))
+						? FileVisitResult.SKIP_SUBTREE : FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+				final Path relative = context.relativize(file);
+				// docker always sends the Dockerfile and .dockerignore, even when they are ignored
+				if (attrs.isRegularFile() && (file.equals(dockerfile) || relative.toString().equals(DOCKERIGNORE)
+						|| !ignored(ignore, relative))) {
+					files.add(file);
+				}
+				return FileVisitResult.CONTINUE;
+			}
+		});
+		files.sort((a, b) -> context.relativize(a).toString().compareTo(context.relativize(b).toString()));
+		final byte[] buffer = new byte[64 * 1024];
+		for (final Path file : files) {
+			digest.update(context.relativize(file).toString().getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) 0);
+			try (final InputStream in = Files.newInputStream(file)) {
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					digest.update(buffer, 0, read);
+				}
+			}
+			digest.update((byte) 0);
+		}
+
+		final StringBuilder hex = new StringBuilder();
+		for (final byte b : digest.digest()) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Read the .dockerignore patterns of a build context.
+	 *
+	 * @param context build context directory
+	 * @return patterns in file order, empty if the context has no .dockerignore
+	 */
+	private static List<Pattern> dockerignore(final Path context) throws IOException {
+		final List<Pattern> patterns = new ArrayList<>();
+		final Path file = context.resolve(DOCKERIGNORE);
+		if (!Files.isRegularFile(file)) {
+			return patterns;
+		}
+		for (final String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+			String pattern = line.trim();
+			if (pattern.isEmpty() || pattern.startsWith("#")) {
+				continue;
+			}
+			final boolean exception = pattern.startsWith("!");
+			if (exception) {
+				pattern = pattern.substring(1).trim();
+			}
+			pattern = pattern.replaceAll("^(\\./|/)+", "").replaceAll("/+$", "");
+			if (!pattern.isEmpty()) {
+				patterns.add(new Pattern(FileSystems.getDefault().getPathMatcher("glob:" + pattern), exception));
+			}
+		}
+		return patterns;
+	}
+
+	/**
+	 * Check if a path is ignored. As in docker, a pattern matching a directory
+	 * matches everything below it and the last matching pattern decides.
+	 *
+	 * @param patterns .dockerignore patterns
+	 * @param relative path relative to the build context
+	 * @return true if the path is excluded from the build context
+	 */
+	private static boolean ignored(final List<Pattern> patterns, final Path relative) {
+		boolean ignored = false;
+		for (final Pattern pattern : patterns) {
+			for (Path path = relative; path != null; path = path.getParent()) {
+				if (pattern.matcher.matches(path)) {
+					ignored = !pattern.exception;
+					break;
+				}
+			}
+		}
+		return ignored;
+	}
+
+	private static final class Pattern {
+		private final PathMatcher matcher;
+		private final boolean exception;
+
+		private Pattern(final PathMatcher matcher, final boolean exception) {
+			this.matcher = matcher;
+			this.exception = exception;
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (final NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
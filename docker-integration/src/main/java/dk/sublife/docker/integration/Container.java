@@ -16,6 +16,7 @@
 package dk.sublife.docker.integration;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.DockerException;
 import com.spotify.docker.client.DockerRequestException;
@@ -25,6 +26,9 @@ import com.spotify.docker.client.messages.ContainerConfig;
 import com.spotify.docker.client.messages.ContainerCreation;
 import com.spotify.docker.client.messages.ContainerInfo;
 import com.spotify.docker.client.messages.HostConfig;
+import com.spotify.docker.client.messages.ProgressMessage;
+import dk.sublife.docker.integration.archive.ImageArchive;
+import dk.sublife.docker.integration.placement.CpuPlacement;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
@@ -33,10 +37,23 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.net.UnknownHostException;
 import java.nio.file.Path;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.spotify.docker.client.DockerClient.LogsParam.stderr;
 import static com.spotify.docker.client.DockerClient.LogsParam.stdout;
@@ -54,11 +71,41 @@ abstract public class Container implements InitializingBean, DisposableBean {
 	 */
 	private static final Logger LOGGER = LoggerFactory.getLogger(Container.class);
 
+	/**
+	 * Label identifying the test fork which created a container.
+	 */
+	public static final String FORK_LABEL = "dk.sublife.docker.integration.fork";
+
+	/**
+	 * Identifier of this JVM, unique across forks sharing the same docker daemon.
+	 */
+	private static final String JVM_ID = ManagementFactory.getRuntimeMXBean().getName().split("@")[0]
+			+ "-" + UUID.randomUUID().toString().substring(0, 4);
+
+	/**
+	 * Sequence used to create unique container names and placement ids within this JVM.
+	 */
+	private static final AtomicInteger SEQUENCE = new AtomicInteger();
+
+	/**
+	 * Number of containers started by this JVM.
+	 */
+	private static final AtomicInteger STARTED = new AtomicInteger();
+
+	/**
+	 * Images built from a Dockerfile, these are never pulled.
+	 */
+	private static final Set<String> BUILT_IMAGES = ConcurrentHashMap.newKeySet();
+
+	/**
+	 * Locks preventing concurrent builds of the same image.
+	 */
+	private static final ConcurrentMap<String, Object> BUILD_LOCKS = new ConcurrentHashMap<>();
 
 	/**
 	 * Docker container instance.
 	 */
-	private ContainerCreation container;
+	private volatile ContainerCreation container;
 
 	/**
 	 * Docker client.
@@ -71,11 +118,99 @@ abstract public class Container implements InitializingBean, DisposableBean {
 	 */
 	@Autowired
 	private HostConfig hostConfig;
-	private boolean isUp = false;
+
+	/**
+	 * Cpu placement, only present when placement is configured.
+	 */
+	@Autowired(required = false)
+	private CpuPlacement cpuPlacement;
+
+	/**
+	 * Offline image archive, only present when an archive is configured.
+	 */
+	@Autowired(required = false)
+	private ImageArchive imageArchive;
+
+	/**
+	 * True when isUp and postStartup have completed successfully.
+	 */
+	private volatile boolean isUp = false;
+
+	/**
+	 * Failure from postStartup, rethrown to every later waiter.
+	 */
+	private volatile RuntimeException startupFailure;
+
+	/**
+	 * Guards postStartup so it is executed at most once.
+	 */
+	private final AtomicBoolean postStartupStarted = new AtomicBoolean();
+
+	/**
+	 * Only one thread polls for readiness, other waiters block on this lock
+	 * and share the result.
+	 */
+	private final ReentrantLock readinessLock = new ReentrantLock();
 
 	@Value("${dk.sublife.dk.docker.integration.waitForTimeout:60}")
 	private Integer waitForTimeout;
 
+	/**
+	 * Fork identifier, e.g. ${surefire.forkNumber}. Defaults to the process id.
+	 */
+	@Value("${dk.sublife.dk.docker.integration.forkId:}")
+	private String forkId;
+
+	/**
+	 * Seconds without use before the container is paused, 0 disables pausing.
+	 */
+	@Value("${dk.sublife.dk.docker.integration.idlePauseSeconds:0}")
+	private Long idlePauseSeconds;
+
+	/**
+	 * Time of last use of address, inspect or waitFor, in nanoseconds.
+	 * Guarded by pauseLock.
+	 */
+	private long lastUsed = System.nanoTime();
+
+	/**
+	 * True while the container is paused because it was idle. Guarded by
+	 * pauseLock.
+	 */
+	private boolean paused = false;
+
+	/**
+	 * Number of holders using the container, it is never paused while held.
+	 * Guarded by pauseLock.
+	 */
+	private int holds = 0;
+
+	/**
+	 * Guards pausing and unpausing the container.
+	 */
+	private final Object pauseLock = new Object();
+
+	/**
+	 * Maximum time spent verifying readiness after unpausing.
+	 */
+	private static final long UNPAUSE_CHECK_MILLIS = 1000;
+
+	private ScheduledFuture<?> idleCheck;
+
+	/**
+	 * Identifier of this container in the cpu placement, unique within this JVM.
+	 */
+	private final String placementId = getClass().getSimpleName() + "-" + SEQUENCE.incrementAndGet();
+
+	/**
+	 * Get the number of containers started by this JVM.
+	 *
+	 * @return started containers
+	 */
+	public static int startedContainers() {
+		return STARTED.get();
+	}
+
 	/**
 	 * Create docker container config.
 	 *
@@ -151,11 +286,111 @@ abstract public class Container implements InitializingBean, DisposableBean {
 	 */
 	protected ContainerConfig.Builder image(final String image, String... env){
 		return ContainerConfig.builder()
-				.hostConfig(createHostConfig())
+				.hostConfig(place(createHostConfig()))
 				.env(ImmutableList.copyOf(env))
+				.labels(ImmutableMap.of(FORK_LABEL, forkId()))
 				.image(image);
 	}
 
+	/**
+	 * Apply the configured cpu placement to a host config.
+	 *
+	 * @param hostConfig host config
+	 * @return host config with cpuset and memory limit, or the host config
+	 * itself when no placement is configured
+	 */
+	protected HostConfig place(final HostConfig hostConfig) {
+		return cpuPlacement == null ? hostConfig : cpuPlacement.apply(placementId, hostConfig);
+	}
+
+	/**
+	 * Create Container config builder from a Dockerfile.
+	 * <p/>
+	 * The image is tagged with a hash of the build context and only built if no
+	 * local image with that tag exists.
+	 *
+	 * @param dockerfile Dockerfile, must be located inside the build context
+	 * @param context build context directory
+	 * @param env Environment variables
+	 * @return Container config builder
+	 */
+	protected ContainerConfig.Builder dockerfile(final Path dockerfile, final Path context, String... env)
+			throws DockerException, InterruptedException, IOException {
+		return image(build(dockerfile, context), env);
+	}
+
+	/**
+	 * Build docker image from a Dockerfile unless an image built from the same
+	 * build context content already exists locally.
+	 *
+	 * @param dockerfile Dockerfile, must be located inside the build context
+	 * @param context build context directory
+	 * @return image tag
+	 */
+	protected String build(final Path dockerfile, final Path context) throws DockerException, InterruptedException, IOException {
+		final Path contextDirectory = context.toAbsolutePath().normalize();
+		final Path dockerfilePath = dockerfile.toAbsolutePath().normalize();
+		if (!dockerfilePath.startsWith(contextDirectory)) {
+			throw new IllegalArgumentException("Dockerfile must be located inside the build context: " + dockerfile);
+		}
+		final String hash = BuildContextHash.hash(dockerfilePath, contextDirectory);
+		final String repository = contextDirectory.getFileName().toString()
+				.toLowerCase(Locale.ROOT).replaceAll("[^a-z0-9_.-]", "_");
+		final String tag = String.format("docker-integration/%s:%s", repository, hash.substring(0, 12));
+
+		synchronized (BUILD_LOCKS.computeIfAbsent(tag, t -> new Object())) {
+			try {
+				dockerClient.inspectImage(tag);
+				LOGGER.info("Using cached image {} for build context {}", tag, contextDirectory);
+			} catch (final ImageNotFoundException e) {
+				LOGGER.info("Building image {} from {}", tag, dockerfilePath);
+				final Instant start = Instant.now();
+				dockerClient.build(contextDirectory, tag, contextDirectory.relativize(dockerfilePath).toString(),
+						this::logBuildProgress);
+				LOGGER.info("Built image {} in {}ms", tag, Duration.between(start, Instant.now()).toMillis());
+			}
+			BUILT_IMAGES.add(tag);
+		}
+		return tag;
+	}
+
+	private void logBuildProgress(final ProgressMessage message) throws DockerException {
+		if (message.error() != null) {
+			throw new DockerException(message.error());
+		}
+		if (message.stream() != null && !message.stream().trim().isEmpty()) {
+			LOGGER.info("Build: {}", message.stream().trim());
+		}
+	}
+
+	/**
+	 * Get the identifier of the test fork running this container.
+	 *
+	 * @return fork id
+	 */
+	protected String forkId() {
+		return forkId == null || forkId.isEmpty() ? JVM_ID : forkId;
+	}
+
+	/**
+	 * Create a docker container name which is unique across forks and
+	 * parallel test executions sharing the same docker daemon. An explicit
+	 * fork id is followed by the JVM id, as fork numbers are reused by
+	 * concurrent builds.
+	 *
+	 * @param containerConfig container config
+	 * @return container name
+	 */
+	protected String containerName(final ContainerConfig containerConfig) {
+		final String image = containerConfig.image();
+		final String repository = image.substring(image.lastIndexOf('/') + 1).split(":")[0];
+		final String fork = forkId();
+		return String.format("%s-%s-%d",
+				repository.replaceAll("[^a-zA-Z0-9_.-]", "_"),
+				(JVM_ID.equals(fork) ? fork : fork + "-" + JVM_ID).replaceAll("[^a-zA-Z0-9_.-]", "_"),
+				SEQUENCE.incrementAndGet());
+	}
+
 	/**
 	 * Wait for isUp method call is satisfied.
 	 * <p/>
@@ -171,13 +406,39 @@ abstract public class Container implements InitializingBean, DisposableBean {
 
 	/**
 	 * Wait for isUp method call is satisfied.
+	 * <p/>
+	 * Safe to call from several threads, only one of them polls the container
+	 * while the others wait for the shared result.
 	 *
 	 * @param timoutSeconds seconds before failing
 	 * @return true when service is available
 	 * @throws InterruptedException
 	 */
 	protected boolean waitFor(long timoutSeconds) throws Exception {
-		final Instant start = Instant.now();
+		touch();
+		if(isUp){
+			return true;
+		}
+		final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timoutSeconds);
+		if(!readinessLock.tryLock(deadline - System.nanoTime(), TimeUnit.NANOSECONDS)){
+			throw new RuntimeException("Wait time exceeded.");
+		}
+		try {
+			return pollUntilUp(deadline);
+		} finally {
+			readinessLock.unlock();
+		}
+	}
+
+	/**
+	 * Poll isUp until it succeeds or the deadline passes.
+	 *
+	 * @param deadline {@link System#nanoTime()} deadline shared with the wait for the readiness lock
+	 */
+	private boolean pollUntilUp(final long deadline) throws Exception {
+		if(startupFailure != null){
+			throw startupFailure;
+		}
 		final ContainerInfo inspect = inspect();
 		final String name = inspect.name();
 		final String image = inspect.config().image();
@@ -188,14 +449,21 @@ abstract public class Container implements InitializingBean, DisposableBean {
 		while(!isUp){
 			try {
 				if (inspect().state().running()) {
-					isUp = isUp();
-					if(isUp){
-						if(LOGGER.isInfoEnabled()){
-							LOGGER.info("Running post startup actions...");
-						}
-						if (!postStartup()) {
-							throw new RuntimeException("Post startup failed!");
+					if(isUp()){
+						if(postStartupStarted.compareAndSet(false, true)){
+							if(LOGGER.isInfoEnabled()){
+								LOGGER.info("Running post startup actions...");
+							}
+							try {
+								if (!postStartup()) {
+									throw new RuntimeException("Post startup failed!");
+								}
+							} catch (final RuntimeException e) {
+								startupFailure = e;
+								throw e;
+							}
 						}
+						isUp = true;
 					}
 				} else {
 					LOGGER.error("Container is not up: {}{}", image, name);
@@ -207,8 +475,11 @@ abstract public class Container implements InitializingBean, DisposableBean {
 			} catch (Exception e) {
 				LOGGER.info(e.getMessage());
 			}
-			final long seconds = Duration.between(start, Instant.now()).getSeconds();
-			if(seconds > timoutSeconds){
+			if(isUp){
+				break;
+			}
+			final long remaining = deadline - System.nanoTime();
+			if(remaining <= 0){
 				try {
 					if (inspect().state().running()) {
 						LOGGER.error("Container is running but not up: {}{}", image, name);
@@ -219,7 +490,7 @@ abstract public class Container implements InitializingBean, DisposableBean {
 				}
 				throw new RuntimeException("Wait time exceeded.");
 			}
-			Thread.sleep(5000);
+			Thread.sleep(Math.min(5000, TimeUnit.NANOSECONDS.toMillis(remaining) + 1));
 		}
 		if(LOGGER.isInfoEnabled()){
 			LOGGER.info("container is up {}{}", image, name);
@@ -270,9 +541,126 @@ abstract public class Container implements InitializingBean, DisposableBean {
 	 * @throws InterruptedException
 	 */
 	public ContainerInfo inspect() throws DockerException, InterruptedException {
+		touch();
 		return dockerClient.inspectContainer(container.id());
 	}
 
+	/**
+	 * Mark the container as used, unpausing it if it was paused while idle.
+	 *
+	 * @throws DockerException
+	 * @throws InterruptedException
+	 */
+	protected void touch() throws DockerException, InterruptedException {
+		final boolean unpaused;
+		synchronized (pauseLock) {
+			lastUsed = System.nanoTime();
+			unpaused = unpause();
+		}
+		if (unpaused) {
+			checkUpAfterUnpause();
+		}
+	}
+
+	/**
+	 * Hold the container, preventing it from being paused until released.
+	 * Holds are counted, every hold must be followed by a release. The
+	 * container is unpaused if it was paused while idle.
+	 *
+	 * @throws DockerException
+	 * @throws InterruptedException
+	 */
+	public void hold() throws DockerException, InterruptedException {
+		synchronized (pauseLock) {
+			holds++;
+		}
+		touch();
+	}
+
+	/**
+	 * Release a hold, the container may be paused once it has been idle for
+	 * the idle threshold.
+	 */
+	public void release() {
+		synchronized (pauseLock) {
+			holds = Math.max(0, holds - 1);
+			lastUsed = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Pause the container if it is up, not held and has not been used for
+	 * longer than the idle threshold. Executed periodically when idle pausing
+	 * is enabled.
+	 */
+	protected void pauseIfIdle() {
+		synchronized (pauseLock) {
+			final long idle = System.nanoTime() - lastUsed;
+			if (paused || holds > 0 || !isUp || idle < TimeUnit.SECONDS.toNanos(idlePauseSeconds)) {
+				return;
+			}
+			try {
+				dockerClient.pauseContainer(container.id());
+				paused = true;
+				LOGGER.info("Paused container idle for {}s: {}", TimeUnit.NANOSECONDS.toSeconds(idle), container.id());
+			} catch (final Exception e) {
+				LOGGER.warn("Unable to pause idle container: {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Unpause the container if it was paused while idle. Must be called
+	 * holding pauseLock.
+	 *
+	 * @return true if the container was unpaused
+	 */
+	private boolean unpause() throws DockerException, InterruptedException {
+		if (!paused) {
+			return false;
+		}
+		dockerClient.unpauseContainer(container.id());
+		paused = false;
+		LOGGER.info("Unpaused container: {}", container.id());
+		return true;
+	}
+
+	/**
+	 * Re-verify readiness after unpausing, for at most UNPAUSE_CHECK_MILLIS.
+	 * If the container does not respond, the next waitFor performs a full
+	 * readiness check.
+	 */
+	private void checkUpAfterUnpause() throws InterruptedException {
+		final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(UNPAUSE_CHECK_MILLIS);
+		do {
+			if (isUp()) {
+				return;
+			}
+			Thread.sleep(100);
+		} while (System.nanoTime() < deadline);
+		LOGGER.warn("Container not up after unpause, readiness will be rechecked: {}", container.id());
+		isUp = false;
+	}
+
+	private void scheduleIdleCheck() {
+		if (idlePauseSeconds == null || idlePauseSeconds <= 0) {
+			return;
+		}
+		final long period = Math.max(1, idlePauseSeconds / 2);
+		idleCheck = IdleScheduler.INSTANCE.scheduleWithFixedDelay(this::pauseIfIdle, period, period, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Daemon scheduler shared by all containers, created on first use.
+	 */
+	private static final class IdleScheduler {
+		private static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "docker-integration-idle");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
 	/**
 	 * Pull docker image.
 	 *
@@ -296,6 +684,16 @@ abstract public class Container implements InitializingBean, DisposableBean {
 	 */
 	@Override
 	synchronized public void afterPropertiesSet() throws Exception {
+		try {
+			createAndStartContainer();
+		} catch (final Exception e) {
+			// destroy is never invoked for a bean failing initialization
+			releasePlacement();
+			throw e;
+		}
+	}
+
+	private void createAndStartContainer() throws Exception {
 		final ContainerConfig containerConfig = createContainerConfig();
 		this.container = createContainer(containerConfig);
 		try {
@@ -304,10 +702,12 @@ abstract public class Container implements InitializingBean, DisposableBean {
 			}
 			LOGGER.info("Starting container: image: {}, name: {}, address: {}", containerConfig.image(), name(), address());
 			startContainer();
+			STARTED.incrementAndGet();
 			try {
 				if (!postStartContainer()) {
 					throw new RuntimeException("Post start container failed!");
 				}
+				scheduleIdleCheck();
 			} catch (final Exception postStartContainerException) {
 				killContainer();
 				throw postStartContainerException;
@@ -319,14 +719,47 @@ abstract public class Container implements InitializingBean, DisposableBean {
 	}
 
 	protected ContainerCreation createContainer(final ContainerConfig containerConfig) throws DockerException, InterruptedException {
-		try {
-			pull(containerConfig.image());
-		} catch (DockerException e){
-			LOGGER.warn("Unable to fetch docker image: {}", e.getMessage());
-			LOGGER.warn(e.toString());
+		final String image = containerConfig.image();
+		if (!BUILT_IMAGES.contains(image) && !localOrArchived(image)) {
+			try {
+				pull(image);
+			} catch (DockerException e){
+				LOGGER.warn("Unable to fetch docker image: {}", e.getMessage());
+				LOGGER.warn(e.toString());
+				if (imageArchive != null && !ImageArchive.exists(dockerClient, image)) {
+					throw new DockerException(String.format(
+							"Image %s is not available locally, could not be pulled and is not in the image archive %s",
+							image, imageArchive), e);
+				}
+			}
 		}
 
-		return dockerClient.createContainer(containerConfig);
+		return dockerClient.createContainer(containerConfig, containerName(containerConfig));
+	}
+
+	/**
+	 * Check if an image can be used without pulling it when an image archive
+	 * is configured, loading it from the archive if it is not present locally.
+	 *
+	 * @param image docker image
+	 * @return true if the image is present locally or was loaded from the archive
+	 */
+	private boolean localOrArchived(final String image) throws DockerException, InterruptedException {
+		if (imageArchive == null) {
+			return false;
+		}
+		imageArchive.record(image);
+		if (ImageArchive.exists(dockerClient, image)) {
+			return true;
+		}
+		if (!imageArchive.contains(image)) {
+			return false;
+		}
+		try {
+			return imageArchive.load(dockerClient, image);
+		} catch (final IOException e) {
+			throw new DockerException("Unable to load image " + image + " from " + imageArchive, e);
+		}
 	}
 
 	protected void startContainer() throws DockerException, InterruptedException, UnknownHostException {
@@ -347,11 +780,27 @@ abstract public class Container implements InitializingBean, DisposableBean {
 	 *                   other beans to release their resources too.
 	 */
 	@Override
-	public void destroy() throws Exception {
+	synchronized public void destroy() throws Exception {
+		if (idleCheck != null) {
+			idleCheck.cancel(false);
+		}
+		synchronized (pauseLock) {
+			unpause();
+		}
 		try {
 			killContainer();
 		} finally {
-			removeContainer();
+			try {
+				removeContainer();
+			} finally {
+				releasePlacement();
+			}
+		}
+	}
+
+	private void releasePlacement() {
+		if (cpuPlacement != null) {
+			cpuPlacement.release(placementId);
 		}
 	}
 
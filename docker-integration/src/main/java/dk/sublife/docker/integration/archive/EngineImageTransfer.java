@@ -0,0 +1,147 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.archive;
+
+import com.google.common.net.UrlEscapers;
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerCertificateException;
+import com.spotify.docker.client.DockerCertificates;
+import com.spotify.docker.client.DockerException;
+import com.spotify.docker.client.ImageNotFoundException;
+import com.spotify.docker.client.UnixConnectionSocketFactory;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+
+/**
+ * Image transfer using the docker Engine API endpoints POST /images/load and
+ * GET /images/{name}/get.
+ * <p/>
+ * docker-client 3.3.1 has no calls for these endpoints, so the requests are
+ * made with the HTTP client docker-client itself is built on, configured
+ * with the same endpoint and certificates as the {@link DefaultDockerClient}.
+ * Tarballs are streamed in both directions and never buffered in memory.
+ */
+public class EngineImageTransfer implements ImageTransfer, Closeable {
+
+	private final CloseableHttpClient client;
+	private final String base;
+
+	/**
+	 * Create image transfer for the docker daemon configured in the environment
+	 * (DOCKER_HOST, DOCKER_CERT_PATH).
+	 *
+	 * @return image transfer
+	 * @throws DockerCertificateException if the certificates could not be read
+	 */
+	public static EngineImageTransfer fromEnv() throws DockerCertificateException {
+		return new EngineImageTransfer(DefaultDockerClient.fromEnv());
+	}
+
+	/**
+	 * @param builder docker client configuration
+	 */
+	public EngineImageTransfer(final DefaultDockerClient.Builder builder) {
+		final URI uri = builder.uri();
+		final RegistryBuilder<ConnectionSocketFactory> registry = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory());
+		final String endpoint;
+		if ("unix".equals(uri.getScheme())) {
+			registry.register("unix", new UnixConnectionSocketFactory(uri));
+			endpoint = UnixConnectionSocketFactory.sanitizeUri(uri).toString();
+		} else {
+			endpoint = uri.toString();
+		}
+		final DockerCertificates certificates = builder.dockerCertificates();
+		if (certificates != null) {
+			registry.register("https", new SSLConnectionSocketFactory(certificates.sslContext(), certificates.hostnameVerifier()));
+		}
+		final String version = builder.apiVersion() == null ? "" : "/v" + builder.apiVersion();
+		this.base = endpoint.replaceAll("/+$", "") + version;
+		this.client = HttpClients.custom()
+				.setConnectionManager(new PoolingHttpClientConnectionManager(registry.build()))
+				.build();
+	}
+
+	@Override
+	public void load(final InputStream tarball) throws DockerException, IOException {
+		final HttpPost post = new HttpPost(base + "/images/load");
+		post.setEntity(new InputStreamEntity(tarball, -1, ContentType.create("application/x-tar")));
+		try (final CloseableHttpResponse response = client.execute(post)) {
+			final String body = body(response);
+			if (response.getStatusLine().getStatusCode() / 100 != 2) {
+				throw new DockerException(String.format("Image load failed: %s %s", response.getStatusLine(), body));
+			}
+			// errors while loading are reported in the streamed json response
+			if (body.contains("\"error\"")) {
+				throw new DockerException("Image load failed: " + body);
+			}
+		}
+	}
+
+	@Override
+	public InputStream save(final String image) throws DockerException, IOException {
+		final HttpGet get = new HttpGet(base + "/images/" + UrlEscapers.urlPathSegmentEscaper().escape(image) + "/get");
+		final CloseableHttpResponse response = client.execute(get);
+		final int status = response.getStatusLine().getStatusCode();
+		if (status / 100 != 2) {
+			try {
+				if (status == 404) {
+					throw new ImageNotFoundException(image);
+				}
+				throw new DockerException(String.format("Image save failed: %s %s", response.getStatusLine(), body(response)));
+			} finally {
+				response.close();
+			}
+		}
+		return new FilterInputStream(response.getEntity().getContent()) {
+			@Override
+			public void close() throws IOException {
+				try {
+					super.close();
+				} finally {
+					response.close();
+				}
+			}
+		};
+	}
+
+	private static String body(final HttpResponse response) throws IOException {
+		return response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+	}
+
+	@Override
+	public void close() throws IOException {
+		client.close();
+	}
+}
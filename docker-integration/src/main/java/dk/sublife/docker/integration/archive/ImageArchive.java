@@ -0,0 +1,230 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.archive;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerException;
+import com.spotify.docker.client.ImageNotFoundException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Directory of saved docker image tarballs, used to start containers on
+ * agents without registry access.
+ * <p/>
+ * Each image is stored as &lt;reference&gt;.tar next to a &lt;reference&gt;.id
+ * file holding the id (digest) of the saved image. Every image used by a test
+ * run is recorded in images.list, so {@link ImageArchiveCommand} can save
+ * exactly the images a suite needs on an agent with registry access.
+ */
+public class ImageArchive implements Closeable {
+
+	/**
+	 * slf4j logger instance.
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageArchive.class);
+
+	/**
+	 * Images used by test runs, one reference per line.
+	 */
+	static final String MANIFEST = "images.list";
+
+	private final Path directory;
+	private final ImageTransfer transfer;
+	private final Set<String> recorded = new LinkedHashSet<>();
+
+	/**
+	 * @param directory archive directory
+	 * @param transfer transfers tarballs to and from the docker daemon
+	 */
+	public ImageArchive(final Path directory, final ImageTransfer transfer) {
+		this.directory = directory;
+		this.transfer = transfer;
+	}
+
+	/**
+	 * Archive file of an image.
+	 *
+	 * @param image image reference
+	 * @return tarball path
+	 */
+	public Path archive(final String image) {
+		return directory.resolve(fileName(image) + ".tar");
+	}
+
+	private Path id(final String image) {
+		return directory.resolve(fileName(image) + ".id");
+	}
+
+	/**
+	 * Check if an image is present in the archive.
+	 *
+	 * @param image image reference
+	 * @return true if the image has been saved
+	 */
+	public boolean contains(final String image) {
+		return Files.isRegularFile(archive(image));
+	}
+
+	/**
+	 * Load an image from the archive. The tarball is streamed to the docker
+	 * daemon without buffering it in memory.
+	 *
+	 * @param dockerClient docker client, used to verify the loaded image
+	 * @param image image reference
+	 * @return true if the image was loaded, false if it is not in the archive
+	 */
+	public boolean load(final DockerClient dockerClient, final String image)
+			throws DockerException, InterruptedException, IOException {
+		final Path archive = archive(image);
+		if (!Files.isRegularFile(archive)) {
+			return false;
+		}
+		LOGGER.info("Loading image {} from {}", image, archive);
+		final Instant start = Instant.now();
+		try (final InputStream in = new BufferedInputStream(Files.newInputStream(archive), 1024 * 1024)) {
+			transfer.load(in);
+		}
+		LOGGER.info("Loaded image {} ({} bytes) in {}ms", image, Files.size(archive),
+				Duration.between(start, Instant.now()).toMillis());
+
+		final Path id = id(image);
+		if (Files.isRegularFile(id)) {
+			final String expected = new String(Files.readAllBytes(id), StandardCharsets.UTF_8).trim();
+			final String actual = dockerClient.inspectImage(image).id();
+			if (!expected.equals(actual)) {
+				LOGGER.warn("Image {} loaded with id {}, but archive was saved from {}", image, actual, expected);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Save an image to the archive. The tarball is streamed to a temporary
+	 * file which replaces the archive when complete.
+	 *
+	 * @param dockerClient docker client, used to look up the image id
+	 * @param image image reference
+	 */
+	public void save(final DockerClient dockerClient, final String image)
+			throws DockerException, InterruptedException, IOException {
+		Files.createDirectories(directory);
+		final String id = dockerClient.inspectImage(image).id();
+		final Path archive = archive(image);
+		final Path partial = directory.resolve(archive.getFileName() + ".partial");
+		LOGGER.info("Saving image {} to {}", image, archive);
+		try (final InputStream in = transfer.save(image)) {
+			Files.copy(in, partial, StandardCopyOption.REPLACE_EXISTING);
+		}
+		Files.move(partial, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		Files.write(id(image), id.getBytes(StandardCharsets.UTF_8));
+		LOGGER.info("Saved image {} ({} bytes)", image, Files.size(archive));
+	}
+
+	/**
+	 * Record an image as used by the test run.
+	 *
+	 * @param image image reference
+	 */
+	public synchronized void record(final String image) {
+		if (!recorded.add(image)) {
+			return;
+		}
+		try {
+			if (recordedImages().contains(image)) {
+				return;
+			}
+			Files.createDirectories(directory);
+			Files.write(directory.resolve(MANIFEST), (image + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+		} catch (final IOException e) {
+			LOGGER.warn("Unable to record image {}: {}", image, e.getMessage());
+		}
+	}
+
+	/**
+	 * Images recorded by test runs.
+	 *
+	 * @return image references
+	 * @throws IOException
+	 */
+	public List<String> recordedImages() throws IOException {
+		final Path manifest = directory.resolve(MANIFEST);
+		if (!Files.isRegularFile(manifest)) {
+			return new ArrayList<>();
+		}
+		final List<String> images = new ArrayList<>();
+		for (final String line : Files.readAllLines(manifest, StandardCharsets.UTF_8)) {
+			if (!line.trim().isEmpty() && !images.contains(line.trim())) {
+				images.add(line.trim());
+			}
+		}
+		return images;
+	}
+
+	/**
+	 * Check if an image is present in the local docker daemon.
+	 *
+	 * @param dockerClient docker client
+	 * @param image image reference
+	 * @return true if present
+	 */
+	public static boolean exists(final DockerClient dockerClient, final String image)
+			throws DockerException, InterruptedException {
+		try {
+			dockerClient.inspectImage(image);
+			return true;
+		} catch (final ImageNotFoundException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * File name of an image reference. Images without a tag are stored as latest.
+	 */
+	static String fileName(final String image) {
+		final String reference = image.lastIndexOf(':') > image.lastIndexOf('/') ? image : image + ":latest";
+		return reference.replace("/", "_").replace(":", "+");
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (transfer instanceof Closeable) {
+			((Closeable) transfer).close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return directory.toString();
+	}
+}
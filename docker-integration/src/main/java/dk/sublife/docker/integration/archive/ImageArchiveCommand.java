@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.archive;
+
+import com.spotify.docker.client.DefaultDockerClient;
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.DockerException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Save the images needed by a test suite to an image archive.
+ * <p/>
+ * Usage: ImageArchiveCommand &lt;archive directory&gt; [image...]
+ * <p/>
+ * Without images, the images recorded in the archive by previous test runs
+ * are saved. Run it on an agent with registry access and ship the archive
+ * directory to the offline agents.
+ */
+public class ImageArchiveCommand {
+
+	/**
+	 * slf4j logger instance.
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ImageArchiveCommand.class);
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 1) {
+			System.err.println("Usage: ImageArchiveCommand <archive directory> [image...]");
+			System.exit(1);
+		}
+		try (final ImageArchive archive = new ImageArchive(Paths.get(args[0]), EngineImageTransfer.fromEnv());
+			 final DockerClient dockerClient = DefaultDockerClient.fromEnv().build()) {
+			final List<String> images = args.length > 1
+					? Arrays.asList(Arrays.copyOfRange(args, 1, args.length))
+					: archive.recordedImages();
+			if (images.isEmpty()) {
+				LOGGER.warn("No images to save, run the test suite with the image archive configured first");
+				return;
+			}
+			for (final String image : images) {
+				try {
+					dockerClient.pull(image);
+				} catch (final DockerException e) {
+					LOGGER.warn("Unable to pull {}, saving local image: {}", image, e.getMessage());
+				}
+				archive.save(dockerClient, image);
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.archive;
+
+import com.spotify.docker.client.DockerException;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Transfers image tarballs, as created by docker save, to and from the
+ * docker daemon.
+ */
+public interface ImageTransfer {
+
+	/**
+	 * Load images from a tarball. The tarball is streamed to the daemon.
+	 *
+	 * @param tarball image tarball
+	 * @throws DockerException if the daemon rejected the tarball
+	 * @throws IOException if the tarball could not be read or sent
+	 */
+	void load(InputStream tarball) throws DockerException, IOException;
+
+	/**
+	 * Save an image as a tarball. The caller must close the returned stream.
+	 *
+	 * @param image image reference
+	 * @return tarball stream
+	 * @throws DockerException if the daemon could not save the image
+	 * @throws IOException if the request failed
+	 */
+	InputStream save(String image) throws DockerException, IOException;
+}
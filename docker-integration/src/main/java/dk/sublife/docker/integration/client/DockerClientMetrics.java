@@ -0,0 +1,142 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.client;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Per endpoint call counts and latency histograms for docker api calls.
+ * <p/>
+ * Endpoints are identified by the {@link com.spotify.docker.client.DockerClient}
+ * method name, e.g. inspectContainer or pull.
+ */
+public class DockerClientMetrics {
+
+	/**
+	 * Upper bounds of the latency histogram buckets in milliseconds. The last
+	 * bucket collects everything above the last bound.
+	 */
+	private static final long[] BUCKETS = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000, 30000};
+
+	private final ConcurrentMap<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+
+	/**
+	 * Record a call to the docker api.
+	 *
+	 * @param endpoint endpoint name
+	 * @param nanos call duration in nanoseconds
+	 * @param failed true if the call threw an exception
+	 */
+	public void record(final String endpoint, final long nanos, final boolean failed) {
+		endpoint(endpoint).record(nanos, failed);
+	}
+
+	/**
+	 * Record a call which was served by an identical call already in flight.
+	 *
+	 * @param endpoint endpoint name
+	 */
+	public void coalesced(final String endpoint) {
+		endpoint(endpoint).coalesced.increment();
+	}
+
+	/**
+	 * Number of calls made to the docker api for the endpoint.
+	 *
+	 * @param endpoint endpoint name
+	 * @return call count
+	 */
+	public long calls(final String endpoint) {
+		final Endpoint e = endpoints.get(endpoint);
+		return e == null ? 0 : e.calls.sum();
+	}
+
+	/**
+	 * Number of calls which were coalesced into an in-flight call.
+	 *
+	 * @param endpoint endpoint name
+	 * @return coalesced call count
+	 */
+	public long coalescedCalls(final String endpoint) {
+		final Endpoint e = endpoints.get(endpoint);
+		return e == null ? 0 : e.coalesced.sum();
+	}
+
+	/**
+	 * Create a human readable report of all recorded endpoints, sorted by
+	 * endpoint name.
+	 *
+	 * @return report
+	 */
+	public String report() {
+		final StringBuilder report = new StringBuilder("Docker API calls:");
+		final Map<String, Endpoint> sorted = new TreeMap<>(endpoints);
+		sorted.forEach((name, e) -> report.append(String.format("%n  %s", e.report(name))));
+		return report.toString();
+	}
+
+	private Endpoint endpoint(final String endpoint) {
+		return endpoints.computeIfAbsent(endpoint, k -> new Endpoint());
+	}
+
+	private static class Endpoint {
+		private final LongAdder calls = new LongAdder();
+		private final LongAdder errors = new LongAdder();
+		private final LongAdder coalesced = new LongAdder();
+		private final LongAdder totalNanos = new LongAdder();
+		private final AtomicLong maxNanos = new AtomicLong();
+		private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS.length + 1);
+
+		void record(final long nanos, final boolean failed) {
+			calls.increment();
+			if (failed) {
+				errors.increment();
+			}
+			totalNanos.add(nanos);
+			maxNanos.accumulateAndGet(nanos, Math::max);
+			final long millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+			int bucket = 0;
+			while (bucket < BUCKETS.length && millis > BUCKETS[bucket]) {
+				bucket++;
+			}
+			histogram.incrementAndGet(bucket);
+		}
+
+		String report(final String name) {
+			final long count = calls.sum();
+			final long avg = count == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalNanos.sum() / count);
+			final StringBuilder line = new StringBuilder(String.format(
+					"%-20s calls=%d errors=%d coalesced=%d avg=%dms max=%dms [",
+					name, count, errors.sum(), coalesced.sum(), avg, TimeUnit.NANOSECONDS.toMillis(maxNanos.get())));
+			for (int i = 0; i < histogram.length(); i++) {
+				final long n = histogram.get(i);
+				if (n == 0) {
+					continue;
+				}
+				line.append(i < BUCKETS.length ? "<=" + BUCKETS[i] : ">" + BUCKETS[BUCKETS.length - 1])
+						.append("ms:").append(n).append(' ');
+			}
+			return line.toString().trim() + "]";
+		}
+	}
+}
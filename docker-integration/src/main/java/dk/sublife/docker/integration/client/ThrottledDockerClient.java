@@ -0,0 +1,246 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.client;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.spotify.docker.client.DockerClient;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Decorating docker client shared by all containers.
+ * <p/>
+ * Identical read calls in flight at the same time are coalesced into a single
+ * call to the docker daemon, concurrent calls and image transfers are capped
+ * and every call is recorded in {@link DockerClientMetrics}.
+ * <p/>
+ * Streaming and blocking calls (logs, attach, exec, wait etc.) are not
+ * capped, as they may hold their connection for as long as the container
+ * runs. The connection pool must leave room for them next to the capped
+ * calls.
+ * <p/>
+ * The caps are shared by every decorated client in the JVM, so test contexts
+ * alive at the same time do not multiply the load on the daemon. The limits
+ * of the first decorated client apply to all of them.
+ * <p/>
+ * The decorator is implemented as a dynamic proxy so it follows the
+ * {@link DockerClient} interface of the docker-client version in use.
+ */
+public class ThrottledDockerClient implements InvocationHandler {
+
+	/**
+	 * slf4j logger instance.
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ThrottledDockerClient.class);
+
+	/**
+	 * Read calls which are safe to share between concurrent callers.
+	 */
+	private static final Set<String> COALESCED = ImmutableSet.of(
+			"inspectContainer", "inspectImage", "info", "version", "ping");
+
+	/**
+	 * Calls which transfer images and are capped separately.
+	 */
+	private static final Set<String> IMAGE_TRANSFER = ImmutableSet.of(
+			"pull", "push", "build");
+
+	/**
+	 * Calls which block until the container exits or return a stream bound to
+	 * the connection, and are therefore not capped.
+	 */
+	private static final Set<String> STREAMING = ImmutableSet.of(
+			"waitContainer", "logs", "attachContainer", "execStart", "exportContainer", "copyContainer");
+
+	private final DockerClient delegate;
+	private final DockerClientMetrics metrics;
+	private final Limiter limiter;
+	private final ConcurrentMap<List<Object>, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+	/**
+	 * Limiter shared by all decorated clients in the JVM.
+	 */
+	private static Limiter shared;
+
+	private ThrottledDockerClient(final DockerClient delegate, final DockerClientMetrics metrics,
+								  final Limiter limiter) {
+		this.delegate = delegate;
+		this.metrics = metrics;
+		this.limiter = limiter;
+	}
+
+	/**
+	 * Decorate a docker client.
+	 *
+	 * @param delegate docker client performing the actual calls
+	 * @param metrics metrics to record calls in
+	 * @param parallelism maximum number of concurrent calls to the daemon from the JVM
+	 * @param imageParallelism maximum number of concurrent image transfers (pull, push and build) from the JVM
+	 * @return decorated docker client
+	 */
+	public static DockerClient wrap(final DockerClient delegate, final DockerClientMetrics metrics,
+									final int parallelism, final int imageParallelism) {
+		if (parallelism < 1 || imageParallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1");
+		}
+		return (DockerClient) Proxy.newProxyInstance(
+				DockerClient.class.getClassLoader(),
+				new Class<?>[]{DockerClient.class},
+				new ThrottledDockerClient(delegate, metrics, limiter(parallelism, imageParallelism)));
+	}
+
+	private static synchronized Limiter limiter(final int parallelism, final int imageParallelism) {
+		if (shared == null) {
+			shared = new Limiter(parallelism, imageParallelism);
+		} else if (shared.parallelism != parallelism || shared.imageParallelism != imageParallelism) {
+			LOGGER.warn("Docker client limits parallelism={} imageParallelism={} ignored, "
+							+ "the JVM wide limits parallelism={} imageParallelism={} apply",
+					parallelism, imageParallelism, shared.parallelism, shared.imageParallelism);
+		}
+		return shared;
+	}
+
+	/**
+	 * Forget the JVM wide limiter.
+	 */
+	@VisibleForTesting
+	static synchronized void reset() {
+		shared = null;
+	}
+
+	@Override
+	public Object invoke(final Object proxy, final Method method, final Object[] args) throws Throwable {
+		final String name = method.getName();
+		if (method.getDeclaringClass() == Object.class) {
+			switch (name) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				default:
+					return "ThrottledDockerClient(" + delegate + ")";
+			}
+		}
+		if ("close".equals(name)) {
+			try {
+				return call(method, args);
+			} finally {
+				LOGGER.info(metrics.report());
+			}
+		}
+		if (STREAMING.contains(name)) {
+			return call(method, args);
+		}
+		if (COALESCED.contains(name)) {
+			return coalesce(method, args);
+		}
+		return throttled(method, args);
+	}
+
+	/**
+	 * Share the result of an identical call already in flight, or perform the
+	 * call and publish the result to anyone arriving while it runs.
+	 */
+	private Object coalesce(final Method method, final Object[] args) throws Throwable {
+		final List<Object> key = Arrays.asList(method, args == null ? null : Arrays.asList(args));
+		final CompletableFuture<Object> future = new CompletableFuture<>();
+		final CompletableFuture<Object> existing = inFlight.putIfAbsent(key, future);
+		if (existing != null) {
+			metrics.coalesced(method.getName());
+			try {
+				return existing.get();
+			} catch (final ExecutionException e) {
+				throw e.getCause();
+			}
+		}
+		try {
+			final Object result = throttled(method, args);
+			future.complete(result);
+			return result;
+		} catch (final Throwable e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+
+	private Object throttled(final Method method, final Object[] args) throws Throwable {
+		if (IMAGE_TRANSFER.contains(method.getName())) {
+			limiter.images.acquire();
+			try {
+				return throttledTotal(method, args);
+			} finally {
+				limiter.images.release();
+			}
+		}
+		return throttledTotal(method, args);
+	}
+
+	private Object throttledTotal(final Method method, final Object[] args) throws Throwable {
+		limiter.total.acquire();
+		try {
+			return call(method, args);
+		} finally {
+			limiter.total.release();
+		}
+	}
+
+	private Object call(final Method method, final Object[] args) throws Throwable {
+		final long start = System.nanoTime();
+		boolean failed = true;
+		try {
+			final Object result = method.invoke(delegate, args);
+			failed = false;
+			return result;
+		} catch (final InvocationTargetException e) {
+			throw e.getCause();
+		} finally {
+			metrics.record(method.getName(), System.nanoTime() - start, failed);
+		}
+	}
+
+	/**
+	 * Permits for calls and image transfers.
+	 */
+	private static final class Limiter {
+		private final int parallelism;
+		private final int imageParallelism;
+		private final Semaphore total;
+		private final Semaphore images;
+
+		private Limiter(final int parallelism, final int imageParallelism) {
+			this.parallelism = parallelism;
+			this.imageParallelism = imageParallelism;
+			this.total = new Semaphore(parallelism, true);
+			this.images = new Semaphore(Math.min(imageParallelism, parallelism), true);
+		}
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.junit;
+
+import dk.sublife.docker.integration.Container;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.core.SpringProperties;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.core.io.support.SpringFactoriesLoader;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.ClassUtils;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Orders test classes so classes sharing a Spring test context, and thereby
+ * the same containers, run back to back.
+ * <p/>
+ * Test classes are grouped by the parts of their configuration which decide
+ * whether Spring can reuse a cached test context: the
+ * {@link SpringApplicationConfiguration} classes, {@link IntegrationTest}
+ * properties and active profiles. The containers of a context are found by
+ * looking for {@link Bean} methods returning a {@link Container} in the
+ * configuration classes, their imports and the auto-configuration classes.
+ */
+public final class ContainerAffinity {
+
+	/**
+	 * Context cache introduced by Spring 4.2 together with the maxSize setting.
+	 */
+	private static final String BOUNDED_CONTEXT_CACHE = "org.springframework.test.context.cache.ContextCache";
+
+	private ContainerAffinity() {
+	}
+
+	/**
+	 * Order test classes, grouping classes with the same context key. Groups
+	 * are sorted by key. Within a group classes annotated with DirtiesContext
+	 * run last, as they close the shared context, and otherwise by name.
+	 *
+	 * @param testClasses test classes
+	 * @return ordered test classes
+	 */
+	public static List<Class<?>> order(final List<Class<?>> testClasses) {
+		final Map<String, List<Class<?>>> groups = testClasses.stream()
+				.sorted(Comparator.comparing(ContainerAffinity::dirtiesContext)
+						.thenComparing((Class<?> testClass) -> testClass.getName()))
+				.collect(Collectors.groupingBy(ContainerAffinity::key, LinkedHashMap::new, Collectors.toList()));
+		return groups.keySet().stream()
+				.sorted()
+				.flatMap(key -> groups.get(key).stream())
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Maximum number of test contexts cached by the spring-test version in use.
+	 * Before Spring 4.2 the cache is unbounded and contexts are only evicted by
+	 * DirtiesContext. From Spring 4.2 the cache is LRU bounded by
+	 * spring.test.context.cache.maxSize, default 32.
+	 *
+	 * @return cache size, {@link Integer#MAX_VALUE} if unbounded
+	 */
+	public static int contextCacheSize() {
+		if (!ClassUtils.isPresent(BOUNDED_CONTEXT_CACHE, ContainerAffinity.class.getClassLoader())) {
+			return Integer.MAX_VALUE;
+		}
+		final String maxSize = SpringProperties.getProperty("spring.test.context.cache.maxSize");
+		return maxSize == null ? 32 : Integer.parseInt(maxSize.trim());
+	}
+
+	/**
+	 * Estimate the number of container starts when running test classes in
+	 * the given order, with a Spring context cache of the given size.
+	 *
+	 * @param testClasses test classes in execution order
+	 * @param contextCacheSize maximum number of cached test contexts
+	 * @return estimated container starts
+	 */
+	public static int estimateStarts(final List<Class<?>> testClasses, final int contextCacheSize) {
+		final LinkedHashMap<String, Boolean> cache = new LinkedHashMap<>(16, 0.75f, true);
+		int starts = 0;
+		for (final Class<?> testClass : testClasses) {
+			final String key = key(testClass);
+			if (cache.get(key) == null) {
+				starts += containers(testClass).size();
+				cache.put(key, Boolean.TRUE);
+				if (cache.size() > contextCacheSize) {
+					cache.remove(cache.keySet().iterator().next());
+				}
+			}
+			if (dirtiesContext(testClass)) {
+				cache.remove(key);
+			}
+		}
+		return starts;
+	}
+
+	/**
+	 * Context key of a test class. Test classes with the same key share a
+	 * cached Spring test context.
+	 *
+	 * @param testClass test class
+	 * @return context key
+	 */
+	public static String key(final Class<?> testClass) {
+		final StringBuilder key = new StringBuilder();
+		key.append(Arrays.stream(configurationClasses(testClass)).map(Class::getName).collect(Collectors.toList()));
+		final IntegrationTest integrationTest = AnnotationUtils.findAnnotation(testClass, IntegrationTest.class);
+		if (integrationTest != null) {
+			key.append(new TreeSet<>(Arrays.asList(integrationTest.value())));
+		}
+		final ActiveProfiles profiles = AnnotationUtils.findAnnotation(testClass, ActiveProfiles.class);
+		if (profiles != null) {
+			final Set<String> names = new TreeSet<>(Arrays.asList(profiles.value()));
+			names.addAll(Arrays.asList(profiles.profiles()));
+			key.append(names);
+		}
+		return key.toString();
+	}
+
+	/**
+	 * Container types created by the test context of a test class.
+	 *
+	 * @param testClass test class
+	 * @return container types
+	 */
+	public static Set<Class<?>> containers(final Class<?> testClass) {
+		final Set<Class<?>> configurations = new LinkedHashSet<>();
+		for (final Class<?> configuration : configurationClasses(testClass)) {
+			addConfiguration(configuration, configurations);
+			if (AnnotationUtils.findAnnotation(configuration, EnableAutoConfiguration.class) != null) {
+				for (final String name : SpringFactoriesLoader.loadFactoryNames(
+						EnableAutoConfiguration.class, testClass.getClassLoader())) {
+					try {
+						addConfiguration(Class.forName(name, false, testClass.getClassLoader()), configurations);
+					} catch (final ClassNotFoundException | LinkageError e) {
+						// auto-configuration not usable on this classpath
+					}
+				}
+			}
+		}
+		final Set<Class<?>> containers = new LinkedHashSet<>();
+		for (final Class<?> configuration : configurations) {
+			try {
+				for (final Method method : configuration.getDeclaredMethods()) {
+					if (method.isAnnotationPresent(Bean.class) && Container.class.isAssignableFrom(method.getReturnType())) {
+						containers.add(method.getReturnType());
+					}
+				}
+			} catch (final LinkageError e) {
+				// configuration referencing classes missing from the classpath
+			}
+		}
+		return containers;
+	}
+
+	/**
+	 * Check if a test class closes its context when it completes.
+	 *
+	 * @param testClass test class
+	 * @return true if annotated with DirtiesContext
+	 */
+	public static boolean dirtiesContext(final Class<?> testClass) {
+		return AnnotationUtils.findAnnotation(testClass, DirtiesContext.class) != null;
+	}
+
+	private static Class<?>[] configurationClasses(final Class<?> testClass) {
+		final SpringApplicationConfiguration configuration =
+				AnnotationUtils.findAnnotation(testClass, SpringApplicationConfiguration.class);
+		if (configuration == null) {
+			return new Class<?>[0];
+		}
+		return configuration.classes();
+	}
+
+	private static void addConfiguration(final Class<?> configuration, final Set<Class<?>> configurations) {
+		if (!configurations.add(configuration)) {
+			return;
+		}
+		final Import imports = AnnotationUtils.findAnnotation(configuration, Import.class);
+		if (imports != null) {
+			for (final Class<?> imported : imports.value()) {
+				addConfiguration(imported, configurations);
+			}
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.junit;
+
+import dk.sublife.docker.integration.Container;
+import org.junit.runner.notification.RunNotifier;
+import org.junit.runners.Suite;
+import org.junit.runners.model.InitializationError;
+import org.junit.runners.model.RunnerBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * JUnit suite running its {@link Suite.SuiteClasses} in container affinity
+ * order, see {@link ContainerAffinity}.
+ * <p/>
+ * Usage:
+ * <pre>
+ * &#064;RunWith(ContainerAffinitySuite.class)
+ * &#064;Suite.SuiteClasses({ ITMySQL56Container.class, ITMySQL57Container.class })
+ * public class ITSuite {}
+ * </pre>
+ * When the suite completes the estimated and actual number of container
+ * starts are logged. The estimate models the Spring test context cache of the
+ * spring-test version in use, see {@link ContainerAffinity#contextCacheSize()}.
+ */
+public class ContainerAffinitySuite extends Suite {
+
+	/**
+	 * slf4j logger instance.
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(ContainerAffinitySuite.class);
+
+	private final List<Class<?>> declared;
+	private final List<Class<?>> ordered;
+
+	public ContainerAffinitySuite(final Class<?> klass, final RunnerBuilder builder) throws InitializationError {
+		this(klass, builder, suiteClasses(klass));
+	}
+
+	private ContainerAffinitySuite(final Class<?> klass, final RunnerBuilder builder, final List<Class<?>> declared)
+			throws InitializationError {
+		this(klass, builder, declared, ContainerAffinity.order(declared));
+	}
+
+	private ContainerAffinitySuite(final Class<?> klass, final RunnerBuilder builder, final List<Class<?>> declared,
+								   final List<Class<?>> ordered) throws InitializationError {
+		super(builder, klass, ordered.toArray(new Class<?>[ordered.size()]));
+		this.declared = declared;
+		this.ordered = ordered;
+	}
+
+	@Override
+	public void run(final RunNotifier notifier) {
+		final int cacheSize = ContainerAffinity.contextCacheSize();
+		final int before = Container.startedContainers();
+		super.run(notifier);
+		LOGGER.info("Container starts: estimated {} (declared order {}), actual {}",
+				ContainerAffinity.estimateStarts(ordered, cacheSize),
+				ContainerAffinity.estimateStarts(declared, cacheSize),
+				Container.startedContainers() - before);
+	}
+
+	private static List<Class<?>> suiteClasses(final Class<?> klass) throws InitializationError {
+		final SuiteClasses annotation = klass.getAnnotation(SuiteClasses.class);
+		if (annotation == null) {
+			throw new InitializationError(String.format("class '%s' must have a SuiteClasses annotation", klass.getName()));
+		}
+		return Arrays.asList(annotation.value());
+	}
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.junit;
+
+import dk.sublife.docker.integration.Container;
+import org.springframework.test.context.TestContext;
+import org.springframework.test.context.support.AbstractTestExecutionListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Holds the containers of a Spring test context while a test class runs, so
+ * idle pausing only pauses containers between test classes. Without it a
+ * test using a container through a held connection or a pooled data source,
+ * which does not mark the container as used, could have it paused mid-test.
+ * <p/>
+ * The listener is registered by default through META-INF/spring.factories.
+ * Test classes declaring their own {@code @TestExecutionListeners} must merge
+ * them with the defaults to keep it.
+ */
+public class ContainerHoldTestExecutionListener extends AbstractTestExecutionListener {
+
+	private static final String HELD = ContainerHoldTestExecutionListener.class.getName() + ".held";
+
+	@Override
+	public void beforeTestClass(final TestContext testContext) throws Exception {
+		final Collection<Container> containers = testContext.getApplicationContext()
+				.getBeansOfType(Container.class).values();
+		final List<Container> held = new ArrayList<>();
+		try {
+			for (final Container container : containers) {
+				container.hold();
+				held.add(container);
+			}
+		} finally {
+			testContext.setAttribute(HELD, held);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void afterTestClass(final TestContext testContext) {
+		final List<Container> held = (List<Container>) testContext.removeAttribute(HELD);
+		if (held != null) {
+			held.forEach(Container::release);
+		}
+	}
+}
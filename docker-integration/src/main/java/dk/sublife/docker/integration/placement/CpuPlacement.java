@@ -0,0 +1,291 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.placement;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.spotify.docker.client.messages.HostConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+/**
+ * Assigns disjoint cpusets and memory limits to containers.
+ * <p/>
+ * The host topology is described by the list of cpus available for testing,
+ * e.g. "0-15". Reserved cpus are never assigned to containers and are meant
+ * for the test JVM, which must be pinned to them externally, e.g. with
+ * taskset.
+ * <p/>
+ * Every cached Spring test context has its own CpuPlacement bean, so the
+ * assignments are shared by all placements in the JVM and containers of
+ * contexts alive at the same time never share cpus. The layout applied during
+ * the run is logged and optionally written to a report file once, when the
+ * JVM exits.
+ */
+public class CpuPlacement {
+
+	/**
+	 * slf4j logger instance.
+	 */
+	private static final Logger LOGGER = LoggerFactory.getLogger(CpuPlacement.class);
+
+	/**
+	 * Cpus assigned to live containers by all placements in this JVM.
+	 * Guarded by the CpuPlacement class.
+	 */
+	private static final Map<String, List<Integer>> ASSIGNMENTS = new LinkedHashMap<>();
+
+	/**
+	 * Every placement applied in this JVM, including released ones.
+	 * Guarded by the CpuPlacement class.
+	 */
+	private static final Map<String, String> APPLIED = new LinkedHashMap<>();
+
+	/**
+	 * Cpus reserved for the test JVM by all placements in this JVM.
+	 * Guarded by the CpuPlacement class.
+	 */
+	private static final TreeSet<Integer> RESERVED = new TreeSet<>();
+
+	/**
+	 * Report files written when the JVM exits. Guarded by the CpuPlacement class.
+	 */
+	private static final Set<Path> REPORTS = new LinkedHashSet<>();
+
+	private static boolean reportHookAdded;
+
+	private final List<Integer> reserved;
+	private final TreeSet<Integer> available;
+	private final int cpusPerContainer;
+	private final long memory;
+
+	/**
+	 * @param cpus host cpus available for testing, e.g. "0-15"
+	 * @param reservedCpus cpus reserved for the test JVM, e.g. "0-1"
+	 * @param cpusPerContainer number of cpus assigned to each container
+	 * @param memory memory limit per container, e.g. "512m", empty for no limit
+	 * @param report file to write the layout to, empty for none
+	 */
+	public CpuPlacement(final String cpus, final String reservedCpus, final int cpusPerContainer,
+						final String memory, final String report) {
+		if (cpusPerContainer < 1) {
+			throw new IllegalArgumentException("cpusPerContainer must be at least 1");
+		}
+		this.reserved = parseCpus(reservedCpus);
+		this.available = new TreeSet<>(parseCpus(cpus));
+		this.available.removeAll(reserved);
+		this.cpusPerContainer = cpusPerContainer;
+		this.memory = parseBytes(memory);
+		synchronized (CpuPlacement.class) {
+			RESERVED.addAll(reserved);
+			if (report != null && !report.isEmpty()) {
+				REPORTS.add(Paths.get(report));
+			}
+			if (!reportHookAdded) {
+				Runtime.getRuntime().addShutdownHook(new Thread(CpuPlacement::writeReport, "docker-integration-placement"));
+				reportHookAdded = true;
+			}
+		}
+		checkJvmAffinity();
+	}
+
+	/**
+	 * Apply the placement of a container to its host config. Cpus are
+	 * allocated the first time a container is placed.
+	 *
+	 * @param container container identifier, unique within the JVM
+	 * @param hostConfig host config to extend
+	 * @return host config with cpuset and memory limit
+	 */
+	public HostConfig apply(final String container, final HostConfig hostConfig) {
+		final HostConfig.Builder builder = hostConfig.toBuilder().cpusetCpus(formatCpus(allocate(container)));
+		if (memory > 0) {
+			builder.memory(memory).memorySwap(memory);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Allocate cpus for a container, returning the existing allocation if the
+	 * container was placed before. Cpus assigned by any placement in the JVM
+	 * are not allocated again until released.
+	 *
+	 * @param container container identifier, unique within the JVM
+	 * @return allocated cpus
+	 */
+	public List<Integer> allocate(final String container) {
+		synchronized (CpuPlacement.class) {
+			final List<Integer> existing = ASSIGNMENTS.get(container);
+			if (existing != null) {
+				return existing;
+			}
+			final TreeSet<Integer> free = new TreeSet<>(available);
+			ASSIGNMENTS.values().forEach(free::removeAll);
+			if (free.size() < cpusPerContainer) {
+				throw new IllegalStateException(String.format(
+						"Not enough free cpus to place %s, %d left but %d required. Assigned: %s",
+						container, free.size(), cpusPerContainer, ASSIGNMENTS));
+			}
+			final List<Integer> cpus = new ArrayList<>();
+			for (int i = 0; i < cpusPerContainer; i++) {
+				cpus.add(free.pollFirst());
+			}
+			ASSIGNMENTS.put(container, Collections.unmodifiableList(cpus));
+			APPLIED.put(container, String.format("cpus=%s memory=%s", formatCpus(cpus), memory > 0 ? memory : "unlimited"));
+			LOGGER.info("Placed {} on cpus {}{}", container, formatCpus(cpus), memory > 0 ? " with " + memory + " bytes memory" : "");
+			return cpus;
+		}
+	}
+
+	/**
+	 * Release the cpus of a removed container.
+	 *
+	 * @param container container identifier
+	 */
+	public void release(final String container) {
+		synchronized (CpuPlacement.class) {
+			final List<Integer> cpus = ASSIGNMENTS.remove(container);
+			if (cpus != null) {
+				LOGGER.info("Released cpus {} from {}", formatCpus(cpus), container);
+			}
+		}
+	}
+
+	/**
+	 * Create a report of the layout applied in this JVM.
+	 *
+	 * @return report
+	 */
+	public static synchronized String report() {
+		final StringBuilder builder = new StringBuilder("Container cpu placement:");
+		builder.append(String.format("%n  %-40s cpus=%s", "test JVM (reserved)", formatCpus(new ArrayList<>(RESERVED))));
+		APPLIED.forEach((container, placement) -> builder.append(String.format("%n  %-40s %s", container, placement)));
+		return builder.toString();
+	}
+
+	/**
+	 * Log the layout applied in this JVM and write it to the report files.
+	 * Invoked once, when the JVM exits.
+	 */
+	private static void writeReport() {
+		final String layout;
+		final List<Path> reports;
+		synchronized (CpuPlacement.class) {
+			layout = report();
+			reports = new ArrayList<>(REPORTS);
+		}
+		LOGGER.info(layout);
+		for (final Path report : reports) {
+			try {
+				if (report.getParent() != null) {
+					Files.createDirectories(report.getParent());
+				}
+				Files.write(report, (layout + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+			} catch (final IOException e) {
+				LOGGER.warn("Unable to write cpu placement report {}: {}", report, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Forget every assignment and the applied layout.
+	 */
+	@VisibleForTesting
+	static synchronized void reset() {
+		ASSIGNMENTS.clear();
+		APPLIED.clear();
+		RESERVED.clear();
+	}
+
+	/**
+	 * Warn if the test JVM is allowed to run on cpus assigned to containers.
+	 * Only possible on Linux, elsewhere the check is skipped.
+	 */
+	private void checkJvmAffinity() {
+		final Path status = Paths.get("/proc/self/status");
+		if (!Files.isReadable(status)) {
+			return;
+		}
+		try {
+			Files.readAllLines(status).stream()
+					.filter(line -> line.startsWith("Cpus_allowed_list:"))
+					.map(line -> parseCpus(line.substring("Cpus_allowed_list:".length()).trim()))
+					.filter(allowed -> !reserved.containsAll(allowed))
+					.findFirst()
+					.ifPresent(allowed -> LOGGER.warn(
+							"Test JVM may run on cpus {}, pin it to the reserved cpus with: taskset -c {}",
+							formatCpus(allowed), formatCpus(reserved)));
+		} catch (final IOException e) {
+			LOGGER.debug("Unable to read cpu affinity: {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Parse a Linux cpu list, e.g. "0-3,8,10-11".
+	 *
+	 * @param cpus cpu list
+	 * @return sorted cpus
+	 */
+	static List<Integer> parseCpus(final String cpus) {
+		final TreeSet<Integer> result = new TreeSet<>();
+		if (cpus == null || cpus.trim().isEmpty()) {
+			return new ArrayList<>(result);
+		}
+		for (final String part : cpus.split(",")) {
+			final String[] range = part.trim().split("-");
+			final int from = Integer.parseInt(range[0].trim());
+			final int to = range.length > 1 ? Integer.parseInt(range[1].trim()) : from;
+			for (int cpu = from; cpu <= to; cpu++) {
+				result.add(cpu);
+			}
+		}
+		return new ArrayList<>(result);
+	}
+
+	static String formatCpus(final List<Integer> cpus) {
+		return cpus.stream().map(String::valueOf).collect(Collectors.joining(","));
+	}
+
+	/**
+	 * Parse a memory size, e.g. "512m" or "2g".
+	 *
+	 * @param memory memory size
+	 * @return bytes, 0 if empty
+	 */
+	static long parseBytes(final String memory) {
+		if (memory == null || memory.trim().isEmpty()) {
+			return 0;
+		}
+		final String value = memory.trim().toLowerCase();
+		final char unit = value.charAt(value.length() - 1);
+		final long multiplier = unit == 'k' ? 1L << 10 : unit == 'm' ? 1L << 20 : unit == 'g' ? 1L << 30 : 1;
+		return Long.parseLong(multiplier == 1 ? value : value.substring(0, value.length() - 1)) * multiplier;
+	}
+}
@@ -19,22 +19,87 @@ import com.spotify.docker.client.DefaultDockerClient;
 import com.spotify.docker.client.DockerCertificateException;
 import com.spotify.docker.client.DockerClient;
 import com.spotify.docker.client.messages.HostConfig;
+import dk.sublife.docker.integration.archive.EngineImageTransfer;
+import dk.sublife.docker.integration.archive.ImageArchive;
+import dk.sublife.docker.integration.client.DockerClientMetrics;
+import dk.sublife.docker.integration.client.ThrottledDockerClient;
+import dk.sublife.docker.integration.placement.CpuPlacement;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.nio.file.Paths;
+
 @Configuration
 public class DockerIntegrationStarter {
 
+	/**
+	 * Maximum number of concurrent calls from the JVM to the docker daemon, excluding
+	 * streaming and blocking calls.
+	 */
+	@Value("${dk.sublife.dk.docker.integration.client.parallelism:8}")
+	private Integer parallelism;
+
+	/**
+	 * Maximum number of concurrent image transfers (pull, push and build) from the JVM.
+	 */
+	@Value("${dk.sublife.dk.docker.integration.client.imageParallelism:2}")
+	private Integer imageParallelism;
+
+	/**
+	 * Connections reserved for streaming and blocking calls (logs, attach,
+	 * exec, wait etc.), which are not capped by parallelism.
+	 */
+	@Value("${dk.sublife.dk.docker.integration.client.streamConnections:8}")
+	private Integer streamConnections;
+
 	@Bean
 	@ConditionalOnMissingBean(HostConfig.class)
 	HostConfig hostConfig(){
 		return HostConfig.builder().publishAllPorts(true).build();
 	}
 
+	@Bean
+	@ConditionalOnMissingBean(DockerClientMetrics.class)
+	DockerClientMetrics dockerClientMetrics(){
+		return new DockerClientMetrics();
+	}
+
 	@Bean
 	@ConditionalOnMissingBean(DockerClient.class)
-	DockerClient dockerClient() throws DockerCertificateException {
-		return DefaultDockerClient.fromEnv().build();
+	DockerClient dockerClient(final DockerClientMetrics metrics) throws DockerCertificateException {
+		final DockerClient dockerClient = DefaultDockerClient.fromEnv()
+				.connectionPoolSize(parallelism + streamConnections)
+				.build();
+		return ThrottledDockerClient.wrap(dockerClient, metrics, parallelism, imageParallelism);
+	}
+
+	@Bean
+	@ConditionalOnMissingBean(CpuPlacement.class)
+	@ConditionalOnProperty(prefix = "dk.sublife.dk.docker.integration.placement", name = "cpus")
+	CpuPlacement cpuPlacement(
+			@Value("${dk.sublife.dk.docker.integration.placement.cpus}") final String cpus,
+			@Value("${dk.sublife.dk.docker.integration.placement.reservedCpus:0}") final String reservedCpus,
+			@Value("${dk.sublife.dk.docker.integration.placement.cpusPerContainer:1}") final Integer cpusPerContainer,
+			@Value("${dk.sublife.dk.docker.integration.placement.memory:}") final String memory,
+			@Value("${dk.sublife.dk.docker.integration.placement.report:}") final String report){
+		return new CpuPlacement(cpus, reservedCpus, cpusPerContainer, memory, report);
+	}
+
+	/**
+	 * Image archive loading images through the docker daemon configured in
+	 * the environment (DOCKER_HOST, DOCKER_CERT_PATH). The transfer does not
+	 * use the {@link DockerClient} bean, so a custom client is ignored and
+	 * loads are neither capped by imageParallelism nor recorded in the client
+	 * metrics.
+	 */
+	@Bean
+	@ConditionalOnMissingBean(ImageArchive.class)
+	@ConditionalOnProperty(prefix = "dk.sublife.dk.docker.integration", name = "imageArchive")
+	ImageArchive imageArchive(@Value("${dk.sublife.dk.docker.integration.imageArchive}") final String directory)
+			throws DockerCertificateException {
+		return new ImageArchive(Paths.get(directory), EngineImageTransfer.fromEnv());
 	}
 }
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class BuildContextHashTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testThatHashOnlyChangesWithContent() throws Exception {
+		final Path context = folder.getRoot().toPath();
+		final Path dockerfile = Files.write(context.resolve("Dockerfile"), "FROM busybox".getBytes(StandardCharsets.UTF_8));
+		Files.createDirectories(context.resolve("app"));
+		final Path app = Files.write(context.resolve("app/run.sh"), "echo 1".getBytes(StandardCharsets.UTF_8));
+
+		final String hash = BuildContextHash.hash(dockerfile, context);
+		assertEquals(hash, BuildContextHash.hash(dockerfile, context));
+
+		Files.write(app, "echo 2".getBytes(StandardCharsets.UTF_8));
+		assertNotEquals(hash, BuildContextHash.hash(dockerfile, context));
+	}
+
+	@Test
+	public void testThatDockerignoredFilesAreNotHashed() throws Exception {
+		final Path context = folder.getRoot().toPath();
+		final Path dockerfile = Files.write(context.resolve("Dockerfile"), "FROM busybox".getBytes(StandardCharsets.UTF_8));
+		Files.write(context.resolve(".dockerignore"), "# build output\ntarget\n*.log\n!keep.log\n".getBytes(StandardCharsets.UTF_8));
+		Files.createDirectories(context.resolve("target/classes"));
+		final Path classFile = Files.write(context.resolve("target/classes/App.class"), new byte[]{1});
+		final Path log = Files.write(context.resolve("debug.log"), "1".getBytes(StandardCharsets.UTF_8));
+		final Path kept = Files.write(context.resolve("keep.log"), "1".getBytes(StandardCharsets.UTF_8));
+
+		final String hash = BuildContextHash.hash(dockerfile, context);
+		Files.write(classFile, new byte[]{2});
+		Files.write(log, "2".getBytes(StandardCharsets.UTF_8));
+		assertEquals(hash, BuildContextHash.hash(dockerfile, context));
+
+		Files.write(kept, "2".getBytes(StandardCharsets.UTF_8));
+		assertNotEquals(hash, BuildContextHash.hash(dockerfile, context));
+	}
+}
@@ -15,11 +15,62 @@
  */
 package dk.sublife.docker.integration;
 
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.ObjectMapperProvider;
 import com.spotify.docker.client.messages.ContainerConfig;
+import com.spotify.docker.client.messages.ContainerCreation;
+import com.spotify.docker.client.messages.ContainerInfo;
+import com.spotify.docker.client.messages.HostConfig;
+import dk.sublife.docker.integration.archive.ImageArchive;
+import dk.sublife.docker.integration.placement.CpuPlacement;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class ContainerTest {
 
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicInteger isUpCalls = new AtomicInteger();
+	private final AtomicInteger postStartupCalls = new AtomicInteger();
+	private final CountDownLatch polling = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+	private final List<String> calls = new CopyOnWriteArrayList<>();
+
+	private final DockerClient dockerClient = (DockerClient) Proxy.newProxyInstance(
+			DockerClient.class.getClassLoader(),
+			new Class<?>[]{DockerClient.class},
+			(proxy, method, args) -> {
+				if ("toString".equals(method.getName())) {
+					return "stub";
+				}
+				calls.add(method.getName());
+				if ("inspectContainer".equals(method.getName())) {
+					return json("{\"Id\":\"id\",\"Name\":\"/test\",\"Config\":{\"Image\":\"test\"},\"State\":{\"Running\":true}}",
+							ContainerInfo.class);
+				}
+				return null;
+			});
+
 	@Test(expected = RuntimeException.class)
 	public void testThatWaitForWillFailAfterTimeout() throws Exception {
 		final Container container = new Container() {
@@ -36,4 +87,263 @@ public class ContainerTest {
 
 		container.waitFor(2);
 	}
+
+	@Test(timeout = 2000)
+	public void testThatWaitForReturnsAsSoonAsTheContainerIsUp() throws Exception {
+		final Container container = started(new Container() {
+			@Override
+			protected ContainerConfig createContainerConfig() {
+				return null;
+			}
+
+			@Override
+			public boolean isUp() {
+				isUpCalls.incrementAndGet();
+				return true;
+			}
+		});
+
+		assertTrue(container.waitFor());
+		assertEquals(1, isUpCalls.get());
+	}
+
+	@Test(timeout = 10000)
+	public void testThatConcurrentWaitersShareOneReadinessCheck() throws Exception {
+		final Container container = started(new Container() {
+			@Override
+			protected ContainerConfig createContainerConfig() {
+				return null;
+			}
+
+			@Override
+			public boolean isUp() {
+				isUpCalls.incrementAndGet();
+				polling.countDown();
+				try {
+					release.await();
+				} catch (final InterruptedException e) {
+					throw new RuntimeException(e);
+				}
+				return true;
+			}
+
+			@Override
+			protected boolean postStartup() {
+				postStartupCalls.incrementAndGet();
+				return true;
+			}
+		});
+		final Thread first = new Thread(() -> waitFor(container));
+		final Thread second = new Thread(() -> waitFor(container));
+		first.start();
+		polling.await();
+		second.start();
+		final ReentrantLock readinessLock = (ReentrantLock) ReflectionTestUtils.getField(container, "readinessLock");
+		while (readinessLock.getQueueLength() == 0) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		first.join();
+		second.join();
+
+		assertEquals(1, isUpCalls.get());
+		assertEquals(1, postStartupCalls.get());
+		assertTrue(container.waitFor());
+	}
+
+	@Test(timeout = 10000)
+	public void testThatPostStartupFailureIsRethrownToLaterWaiters() throws Exception {
+		final RuntimeException failure = new RuntimeException("Fixtures failed");
+		final Container container = started(new Container() {
+			@Override
+			protected ContainerConfig createContainerConfig() {
+				return null;
+			}
+
+			@Override
+			public boolean isUp() {
+				return true;
+			}
+
+			@Override
+			protected boolean postStartup() {
+				postStartupCalls.incrementAndGet();
+				throw failure;
+			}
+		});
+		final AtomicReference<Exception> first = new AtomicReference<>();
+		final AtomicReference<Exception> second = new AtomicReference<>();
+		try {
+			container.waitFor(5);
+			fail("waitFor succeeded after postStartup failed");
+		} catch (final RuntimeException e) {
+			first.set(e);
+		}
+		try {
+			container.waitFor(5);
+			fail("waitFor succeeded after postStartup failed");
+		} catch (final RuntimeException e) {
+			second.set(e);
+		}
+
+		assertSame(failure, first.get());
+		assertSame(failure, second.get());
+		assertEquals(1, postStartupCalls.get());
+	}
+
+	@Test
+	public void testThatContainerNamesContainTheJvmIdOnce() throws Exception {
+		final Container container = started(new Container() {
+			@Override
+			protected ContainerConfig createContainerConfig() {
+				return null;
+			}
+
+			@Override
+			public boolean isUp() {
+				return true;
+			}
+		});
+		final ContainerConfig config = ContainerConfig.builder().image("library/mysql:5.7").build();
+
+		assertTrue(container.containerName(config).matches("mysql-\\d+-\\p{XDigit}{4}-\\d+"));
+		ReflectionTestUtils.setField(container, "forkId", "3");
+		assertTrue(container.containerName(config).matches("mysql-3-\\d+-\\p{XDigit}{4}-\\d+"));
+	}
+
+	@Test
+	public void testThatContainersArePausedWhenIdle() throws Exception {
+		final Container container = up(upContainer(), 60);
+
+		container.pauseIfIdle();
+		assertEquals(Collections.emptyList(), calls);
+
+		idle(container, 61);
+		container.pauseIfIdle();
+		container.pauseIfIdle();
+		assertEquals(Collections.singletonList("pauseContainer"), calls);
+	}
+
+	@Test
+	public void testThatHeldContainersAreNotPaused() throws Exception {
+		final Container container = up(upContainer(), 60);
+		container.hold();
+		idle(container, 61);
+
+		container.pauseIfIdle();
+		assertEquals(Collections.emptyList(), calls);
+
+		container.release();
+		idle(container, 61);
+		container.pauseIfIdle();
+		assertEquals(Collections.singletonList("pauseContainer"), calls);
+	}
+
+	@Test
+	public void testThatPausedContainersAreUnpausedOnUse() throws Exception {
+		final Container container = up(upContainer(), 60);
+		idle(container, 61);
+		container.pauseIfIdle();
+
+		container.inspect();
+		container.inspect();
+		assertEquals(Arrays.asList("pauseContainer", "unpauseContainer", "inspectContainer", "inspectContainer"), calls);
+		assertTrue(container.waitFor());
+	}
+
+	@Test
+	public void testThatPausedContainersAreUnpausedBeforeKill() throws Exception {
+		final Container container = up(upContainer(), 60);
+		idle(container, 61);
+		container.pauseIfIdle();
+
+		container.destroy();
+		assertEquals(Arrays.asList("pauseContainer", "unpauseContainer", "inspectContainer", "killContainer",
+				"inspectContainer", "removeContainer"), calls);
+	}
+
+	@Test
+	public void testThatCpusAreReleasedWhenStartupFails() throws Exception {
+		final CpuPlacement placement = new CpuPlacement("0", "", 1, "", "");
+		final Container container = started(new Container() {
+			@Override
+			protected ContainerConfig createContainerConfig() {
+				image("busybox").build();
+				throw new IllegalStateException("Invalid configuration");
+			}
+
+			@Override
+			public boolean isUp() {
+				return true;
+			}
+		});
+		ReflectionTestUtils.setField(container, "hostConfig", HostConfig.builder().build());
+		ReflectionTestUtils.setField(container, "cpuPlacement", placement);
+		try {
+			container.afterPropertiesSet();
+			fail("afterPropertiesSet succeeded with an invalid configuration");
+		} catch (final IllegalStateException e) {
+			assertEquals("Invalid configuration", e.getMessage());
+		}
+		assertEquals(Collections.singletonList(0), placement.allocate("next"));
+		placement.release("next");
+	}
+
+	@Test
+	public void testThatLocalImagesAreNotPulledWhenAnArchiveIsConfigured() throws Exception {
+		final Container container = upContainer();
+		ReflectionTestUtils.setField(container, "imageArchive", new ImageArchive(folder.getRoot().toPath(), null));
+
+		container.createContainer(ContainerConfig.builder().image("busybox").build());
+		assertEquals(Arrays.asList("inspectImage", "createContainer"), calls);
+	}
+
+	private Container upContainer() throws IOException {
+		return started(new Container() {
+			@Override
+			protected ContainerConfig createContainerConfig() {
+				return null;
+			}
+
+			@Override
+			public boolean isUp() {
+				return true;
+			}
+		});
+	}
+
+	/**
+	 * Mark a container as up with idle pausing enabled.
+	 */
+	private static Container up(final Container container, final long idlePauseSeconds) {
+		ReflectionTestUtils.setField(container, "isUp", true);
+		ReflectionTestUtils.setField(container, "idlePauseSeconds", idlePauseSeconds);
+		return container;
+	}
+
+	private static void idle(final Container container, final long seconds) {
+		ReflectionTestUtils.setField(container, "lastUsed", System.nanoTime() - TimeUnit.SECONDS.toNanos(seconds));
+	}
+
+	/**
+	 * Make a container look created and started by a stub docker client.
+	 */
+	private Container started(final Container container) throws IOException {
+		ReflectionTestUtils.setField(container, "dockerClient", dockerClient);
+		ReflectionTestUtils.setField(container, "container", json("{\"Id\":\"id\"}", ContainerCreation.class));
+		ReflectionTestUtils.setField(container, "waitForTimeout", 5);
+		return container;
+	}
+
+	private static <T> T json(final String json, final Class<T> type) throws IOException {
+		return new ObjectMapperProvider().getContext(type).readValue(json, type);
+	}
+
+	private static void waitFor(final Container container) {
+		try {
+			container.waitFor();
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
 }
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.archive;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.ObjectMapperProvider;
+import com.spotify.docker.client.messages.ImageInfo;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ImageArchiveTest {
+
+	private static final byte[] TARBALL = "tarball".getBytes(StandardCharsets.UTF_8);
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final ByteArrayOutputStream loaded = new ByteArrayOutputStream();
+
+	private final ImageTransfer transfer = new ImageTransfer() {
+		@Override
+		public void load(final InputStream tarball) throws IOException {
+			final byte[] buffer = new byte[4096];
+			for (int read; (read = tarball.read(buffer)) != -1; ) {
+				loaded.write(buffer, 0, read);
+			}
+		}
+
+		@Override
+		public InputStream save(final String image) {
+			return new ByteArrayInputStream(TARBALL);
+		}
+	};
+
+	private final DockerClient dockerClient = (DockerClient) Proxy.newProxyInstance(
+			DockerClient.class.getClassLoader(),
+			new Class<?>[]{DockerClient.class},
+			(proxy, method, args) -> {
+				if ("inspectImage".equals(method.getName())) {
+					return new ObjectMapperProvider().getContext(ImageInfo.class).readValue("{\"Id\":\"sha256:1234\"}", ImageInfo.class);
+				}
+				throw new UnsupportedOperationException(method.getName());
+			});
+
+	@Test
+	public void testThatImagesWithoutTagAreArchivedAsLatest() throws Exception {
+		assertEquals("mysql+latest", ImageArchive.fileName("mysql"));
+		assertEquals("mysql+5.7", ImageArchive.fileName("mysql:5.7"));
+		assertEquals("localhost+5000_team_service+latest", ImageArchive.fileName("localhost:5000/team/service"));
+	}
+
+	@Test
+	public void testThatUsedImagesAreRecordedOnce() throws Exception {
+		final ImageArchive archive = new ImageArchive(folder.getRoot().toPath(), transfer);
+		archive.record("mysql:5.6");
+		archive.record("mysql:5.7");
+		archive.record("mysql:5.6");
+		new ImageArchive(folder.getRoot().toPath(), transfer).record("mysql:5.7");
+
+		assertEquals(Arrays.asList("mysql:5.6", "mysql:5.7"), archive.recordedImages());
+		assertFalse(archive.contains("mysql:5.6"));
+	}
+
+	@Test
+	public void testThatSavedImagesAreLoadedFromTheArchive() throws Exception {
+		final ImageArchive archive = new ImageArchive(folder.getRoot().toPath(), transfer);
+		archive.save(dockerClient, "mysql:5.7");
+
+		assertTrue(archive.contains("mysql:5.7"));
+		assertArrayEquals(TARBALL, Files.readAllBytes(archive.archive("mysql:5.7")));
+		assertEquals("sha256:1234", new String(Files.readAllBytes(folder.getRoot().toPath().resolve("mysql+5.7.id")),
+				StandardCharsets.UTF_8));
+
+		assertTrue(archive.load(dockerClient, "mysql:5.7"));
+		assertArrayEquals(TARBALL, loaded.toByteArray());
+	}
+
+	@Test
+	public void testThatImagesMissingFromTheArchiveAreNotLoaded() throws Exception {
+		assertFalse(new ImageArchive(folder.getRoot().toPath(), transfer).load(dockerClient, "mysql:5.6"));
+		assertEquals(0, loaded.size());
+	}
+}
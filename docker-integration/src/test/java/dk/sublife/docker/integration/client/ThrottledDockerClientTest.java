@@ -0,0 +1,122 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.client;
+
+import com.spotify.docker.client.DockerClient;
+import com.spotify.docker.client.ImageNotFoundException;
+import org.junit.After;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+
+public class ThrottledDockerClientTest {
+
+	private final DockerClientMetrics metrics = new DockerClientMetrics();
+	private final AtomicInteger delegateCalls = new AtomicInteger();
+	private final CountDownLatch entered = new CountDownLatch(1);
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final DockerClient delegate = (DockerClient) Proxy.newProxyInstance(
+			DockerClient.class.getClassLoader(),
+			new Class<?>[]{DockerClient.class},
+			(proxy, method, args) -> {
+				delegateCalls.incrementAndGet();
+				if ("inspectImage".equals(method.getName())) {
+					throw new ImageNotFoundException((String) args[0]);
+				}
+				if ("waitContainer".equals(method.getName())) {
+					return null;
+				}
+				entered.countDown();
+				release.await();
+				return null;
+			});
+
+	@After
+	public void reset() {
+		ThrottledDockerClient.reset();
+	}
+
+	@Test(timeout = 10000)
+	public void testThatIdenticalInspectsInFlightAreCoalesced() throws Exception {
+		final DockerClient client = ThrottledDockerClient.wrap(delegate, metrics, 4, 2);
+		final Thread first = new Thread(() -> inspect(client));
+		final Thread second = new Thread(() -> inspect(client));
+		first.start();
+		entered.await();
+		second.start();
+		while (metrics.coalescedCalls("inspectContainer") == 0) {
+			Thread.sleep(10);
+		}
+		release.countDown();
+		first.join();
+		second.join();
+
+		assertEquals(1, delegateCalls.get());
+		assertEquals(1, metrics.calls("inspectContainer"));
+	}
+
+	@Test(timeout = 10000)
+	public void testThatBlockingCallsDoNotHoldPermits() throws Exception {
+		final DockerClient client = ThrottledDockerClient.wrap(delegate, metrics, 1, 1);
+		final Thread inspect = new Thread(() -> inspect(client));
+		inspect.start();
+		entered.await();
+
+		client.waitContainer("id");
+		release.countDown();
+		inspect.join();
+
+		assertEquals(1, metrics.calls("waitContainer"));
+	}
+
+	@Test(timeout = 10000)
+	public void testThatClientsShareTheJvmWideLimit() throws Exception {
+		final DockerClient first = ThrottledDockerClient.wrap(delegate, metrics, 1, 1);
+		final DockerClient second = ThrottledDockerClient.wrap(delegate, new DockerClientMetrics(), 4, 2);
+		final Thread holding = new Thread(() -> inspect(first));
+		holding.start();
+		entered.await();
+		final Thread waiting = new Thread(() -> inspect(second));
+		waiting.start();
+		while (waiting.getState() != Thread.State.WAITING) {
+			Thread.sleep(10);
+		}
+
+		assertEquals(1, delegateCalls.get());
+		release.countDown();
+		holding.join();
+		waiting.join();
+		assertEquals(2, delegateCalls.get());
+	}
+
+	@Test(expected = ImageNotFoundException.class)
+	public void testThatDockerExceptionsAreNotWrapped() throws Exception {
+		ThrottledDockerClient.wrap(delegate, metrics, 4, 2).inspectImage("missing");
+	}
+
+	private void inspect(final DockerClient client) {
+		try {
+			client.inspectContainer("id");
+		} catch (final Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.junit;
+
+import com.spotify.docker.client.messages.ContainerConfig;
+import dk.sublife.docker.integration.Container;
+import org.junit.Test;
+import org.springframework.boot.test.IntegrationTest;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ContainerAffinityTest {
+
+	static class DatabaseContainer extends Container {
+		@Override
+		protected ContainerConfig createContainerConfig() {
+			return null;
+		}
+
+		@Override
+		public boolean isUp() {
+			return false;
+		}
+	}
+
+	@Configuration
+	static class DatabaseConfiguration {
+		@Bean
+		DatabaseContainer databaseContainer() {
+			return new DatabaseContainer();
+		}
+	}
+
+	@SpringApplicationConfiguration(classes = DatabaseConfiguration.class)
+	@IntegrationTest("image=5.7")
+	static class A57 {
+	}
+
+	@SpringApplicationConfiguration(classes = DatabaseConfiguration.class)
+	@IntegrationTest("image=5.6")
+	static class B56 {
+	}
+
+	@SpringApplicationConfiguration(classes = DatabaseConfiguration.class)
+	@IntegrationTest("image=5.7")
+	static class C57 {
+	}
+
+	@SpringApplicationConfiguration(classes = DatabaseConfiguration.class)
+	@IntegrationTest("image=5.6")
+	@DirtiesContext
+	static class D56 {
+	}
+
+	@SpringApplicationConfiguration(classes = DatabaseConfiguration.class)
+	@IntegrationTest("image=5.6")
+	@DirtiesContext
+	static class A56Dirty {
+	}
+
+	@SpringApplicationConfiguration(classes = DatabaseConfiguration.class)
+	@IntegrationTest("image=5.6")
+	@ActiveProfiles("fixtures")
+	static class B56Fixtures {
+	}
+
+	@SpringApplicationConfiguration(classes = DatabaseConfiguration.class)
+	@IntegrationTest("image=5.6")
+	@ActiveProfiles(profiles = "fixtures")
+	static class C56Fixtures {
+	}
+
+	private final List<Class<?>> declared = Arrays.asList(A57.class, B56.class, C57.class, D56.class);
+
+	@Test
+	public void testThatClassesSharingAContextAreOrderedBackToBack() throws Exception {
+		assertEquals(Arrays.asList(B56.class, D56.class, A57.class, C57.class), ContainerAffinity.order(declared));
+	}
+
+	@Test
+	public void testThatClassesDirtyingTheContextRunLastInTheirGroup() throws Exception {
+		final List<Class<?>> classes = Arrays.asList(A56Dirty.class, B56.class, A57.class);
+		assertEquals(Arrays.asList(B56.class, A56Dirty.class, A57.class), ContainerAffinity.order(classes));
+		assertEquals(2, ContainerAffinity.estimateStarts(ContainerAffinity.order(classes), 1));
+	}
+
+	@Test
+	public void testThatTheContextCacheIsUnboundedBeforeSpring42() throws Exception {
+		assertEquals(Integer.MAX_VALUE, ContainerAffinity.contextCacheSize());
+		assertEquals(2, ContainerAffinity.estimateStarts(declared, ContainerAffinity.contextCacheSize()));
+	}
+
+	@Test
+	public void testThatActiveProfilesArePartOfTheKey() throws Exception {
+		assertEquals(ContainerAffinity.key(B56Fixtures.class), ContainerAffinity.key(C56Fixtures.class));
+		assertNotEquals(ContainerAffinity.key(B56.class), ContainerAffinity.key(C56Fixtures.class));
+	}
+
+	@Test
+	public void testThatContainersAreFoundInTheConfiguration() throws Exception {
+		assertEquals(Collections.singleton(DatabaseContainer.class), ContainerAffinity.containers(A57.class));
+	}
+
+	@Test
+	public void testThatOrderingReducesEstimatedStarts() throws Exception {
+		assertEquals(4, ContainerAffinity.estimateStarts(declared, 1));
+		assertEquals(2, ContainerAffinity.estimateStarts(ContainerAffinity.order(declared), 1));
+	}
+}
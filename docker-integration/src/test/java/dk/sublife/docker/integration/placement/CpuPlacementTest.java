@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Steffen Folman Sørensen
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package dk.sublife.docker.integration.placement;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CpuPlacementTest {
+
+	@After
+	public void reset() {
+		CpuPlacement.reset();
+	}
+
+	@Test
+	public void testThatContainersGetDisjointCpusOutsideTheReservation() throws Exception {
+		final CpuPlacement placement = new CpuPlacement("0-3,6", "0", 2, "512m", "");
+
+		assertEquals(Arrays.asList(1, 2), placement.allocate("mysql"));
+		assertEquals(Arrays.asList(3, 6), placement.allocate("service"));
+		assertEquals(Arrays.asList(1, 2), placement.allocate("mysql"));
+	}
+
+	@Test
+	public void testThatPlacementsOfSeveralContextsDoNotOverlap() throws Exception {
+		final CpuPlacement mysql56Context = new CpuPlacement("0-4", "0", 2, "", "");
+		final CpuPlacement mysql57Context = new CpuPlacement("0-4", "0", 2, "", "");
+
+		assertEquals(Arrays.asList(1, 2), mysql56Context.allocate("MySQLContainer-1"));
+		assertEquals(Arrays.asList(3, 4), mysql57Context.allocate("MySQLContainer-2"));
+
+		final String report = CpuPlacement.report();
+		assertTrue(report, report.contains("MySQLContainer-1") && report.contains("MySQLContainer-2"));
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void testThatPlacementFailsWhenCpusAreExhausted() throws Exception {
+		final CpuPlacement placement = new CpuPlacement("0-1", "0", 1, "", "");
+		placement.allocate("mysql");
+		placement.allocate("service");
+	}
+
+	@Test
+	public void testThatReleasedCpusAreReused() throws Exception {
+		final CpuPlacement placement = new CpuPlacement("0-1", "0", 1, "", "");
+		placement.allocate("mysql");
+		placement.release("mysql");
+
+		assertEquals(Collections.singletonList(1), placement.allocate("service"));
+	}
+
+	@Test
+	public void testThatMemorySizesAreParsed() throws Exception {
+		assertEquals(512L << 20, CpuPlacement.parseBytes("512m"));
+		assertEquals(2L << 30, CpuPlacement.parseBytes("2G"));
+		assertEquals(0L, CpuPlacement.parseBytes(""));
+	}
+}